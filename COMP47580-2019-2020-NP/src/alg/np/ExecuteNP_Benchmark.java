@@ -0,0 +1,296 @@
+/**
+ * A class to benchmark the hot paths of the non-personalised recommender: loading a dataset, computing
+ * item-item similarities using each metric, building the similarity map and making recommendations.
+ * Each benchmark is run over a number of warmup and measurement iterations for each dataset given, and
+ * the time and bytes allocated per operation are output in CSV format, so that the results of different
+ * versions of the code (or of datasets of different sizes) can be compared. The all-pairs benchmarks
+ * count each pair of items as an operation, so that their throughput is reported in pairs per second.
+ *
+ * Each dataset is a folder containing the files movies-sample.txt, genome-scores-sample.txt, train.txt
+ * and test.txt (as for ExecuteNP_Expt) - larger datasets of this form can be written by DatasetGenerator.
+ */
+
+package alg.np;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import alg.np.similarity.CandidateSimilarityBuilder;
+import alg.np.similarity.CoOccurrenceBuilder;
+import alg.np.similarity.RatingProductBuilder;
+import alg.np.similarity.SimilarityMap;
+import alg.np.similarity.TiledSimilarityBuilder;
+import alg.np.similarity.metric.GenomeMetric;
+import alg.np.similarity.metric.GenreMetric;
+import alg.np.similarity.metric.IncConfidenceMetric;
+import alg.np.similarity.metric.RatingMetric;
+import alg.np.similarity.metric.SimilarityMetric;
+import profile.Profile;
+import util.benchmark.Benchmark;
+import util.benchmark.BenchmarkResult;
+import util.reader.DatasetReader;
+
+public class ExecuteNP_Benchmark
+{
+	private static final long SEED = 47580; // the seed used to sample the item pairs
+
+	private static int warmupIterations = 3; // the number of warmup iterations per benchmark
+	private static int iterations = 5; // the number of measurement iterations per benchmark
+	private static int nThreads = Runtime.getRuntime().availableProcessors(); // the number of threads used by the parallel benchmarks
+	private static int npairs = 100000; // the number of item pairs sampled by the similarity benchmarks
+	private static int k = 10; // the number of recommendations made by the top-k recommendation benchmarks
+	private static String[] only = null; // the prefixes of the names of the benchmarks run (null to run all benchmarks)
+
+	/**
+	 * @param args - options followed by one or more dataset folders; the options are -warmup n, -iterations n,
+	 * -threads n, -pairs n, -k n and -only prefix[,prefix...] (e.g. -only load,map/RatingMetric)
+	 */
+	public static void main(String[] args)
+	{
+		List<String> folders = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].startsWith("-") && i + 1 == args.length)
+			{
+				System.out.println("Error - no value given for option " + args[i]);
+				System.exit(1);
+			}
+
+			if(args[i].equals("-warmup"))
+				warmupIterations = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-iterations"))
+				iterations = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-threads"))
+				nThreads = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-pairs"))
+				npairs = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-k"))
+				k = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-only"))
+				only = args[++i].split(",");
+			else if(args[i].startsWith("-"))
+			{
+				System.out.println("Error - unknown option " + args[i]);
+				System.exit(1);
+			}
+			else
+				folders.add(args[i]);
+		}
+
+		if(folders.isEmpty())
+		{
+			System.out.println("Usage: ExecuteNP_Benchmark [-warmup n] [-iterations n] [-threads n] [-pairs n] [-k n] [-only prefix,...] folder [folder ...]");
+			System.exit(1);
+		}
+
+		System.out.println("dataset,items,users,ratings," + BenchmarkResult.getHeader());
+		for(String folder: folders)
+			runBenchmarks(folder);
+	}
+
+	/**
+	 * runs the benchmarks over a dataset
+	 * @param folder - the folder containing the dataset files
+	 */
+	private static void runBenchmarks(final String folder)
+	{
+		final String itemFile = folder + File.separator + "movies-sample.txt";
+		final String itemGenomeScoresFile = folder + File.separator + "genome-scores-sample.txt";
+		final String trainFile = folder + File.separator + "train.txt";
+		final String testFile = folder + File.separator + "test.txt";
+
+		final DatasetReader reader = new DatasetReader(itemFile, itemGenomeScoresFile, trainFile, testFile);
+		long nratings = 0;
+		for(Profile p: reader.getUserProfiles().values())
+			nratings += p.getSize();
+		String dataset = folder + "," + reader.getItems().size() + "," + reader.getUserProfiles().size() + "," + nratings;
+
+		// loading
+		run(dataset, new Benchmark("load/sequential", true) {
+			protected long run()
+			{
+				consume(new DatasetReader(itemFile, itemGenomeScoresFile, trainFile, testFile));
+				return 1;
+			}
+		});
+		run(dataset, new Benchmark("load/parallel", false) {
+			protected long run()
+			{
+				consume(new DatasetReader(itemFile, itemGenomeScoresFile, trainFile, testFile, nThreads));
+				return 1;
+			}
+		});
+
+		// sample the item pairs in advance, so that the similarity benchmarks measure only the metric
+		final Integer[] ids1 = new Integer[npairs];
+		final Integer[] ids2 = new Integer[npairs];
+		Integer[] itemIds = reader.getItems().keySet().toArray(new Integer[0]);
+		Random random = new Random(SEED);
+		for(int i = 0; i < npairs && itemIds.length > 0; i++)
+		{
+			ids1[i] = itemIds[random.nextInt(itemIds.length)];
+			ids2[i] = itemIds[random.nextInt(itemIds.length)];
+		}
+
+		SimilarityMetric[] metrics = {
+				new GenreMetric(reader),
+				new GenomeMetric(reader),
+				new RatingMetric(reader),
+				new IncConfidenceMetric(reader)
+		};
+
+		for(final SimilarityMetric metric: metrics)
+		{
+			String name = metric.getClass().getSimpleName();
+
+			// similarity
+			if(itemIds.length > 0)
+				run(dataset, new Benchmark("similarity/" + name, true) {
+					protected long run()
+					{
+						double sum = 0;
+						for(int i = 0; i < npairs; i++)
+							sum += metric.getItemSimilarity(ids1[i], ids2[i]);
+						consume(sum);
+						return npairs;
+					}
+				});
+
+			// similarity map construction
+			run(dataset, new Benchmark("map/" + name + "/sequential", true) {
+				protected long run()
+				{
+					consume(new SimilarityMap(reader, metric));
+					return 1;
+				}
+			});
+			run(dataset, new Benchmark("map/" + name + "/parallel", false) {
+				protected long run()
+				{
+					consume(new SimilarityMap(reader, metric, nThreads));
+					return 1;
+				}
+			});
+			run(dataset, new Benchmark("map/" + name + "/candidate", true) {
+				protected long run()
+				{
+					consume(new CandidateSimilarityBuilder(reader, metric).build());
+					return 1;
+				}
+			});
+			if(metric instanceof IncConfidenceMetric)
+				run(dataset, new Benchmark("map/" + name + "/cooccurrence", true) {
+					protected long run()
+					{
+						consume(new CoOccurrenceBuilder(reader).build());
+						return 1;
+					}
+				});
+			if(metric instanceof RatingMetric)
+			{
+				run(dataset, new Benchmark("map/" + name + "/product", true) {
+					protected long run()
+					{
+						consume(new RatingProductBuilder(reader).build());
+						return 1;
+					}
+				});
+				run(dataset, new Benchmark("map/" + name + "/product-parallel", false) {
+					protected long run()
+					{
+						consume(new RatingProductBuilder(reader, nThreads).build());
+						return 1;
+					}
+				});
+			}
+
+			// all-pairs similarity computation - the existing loop and the tiled builder
+			final long npairsAll = (long)itemIds.length * (itemIds.length - 1) / 2;
+			run(dataset, new Benchmark("pairs/" + name + "/loop", true) {
+				protected long run()
+				{
+					consume(new SimilarityMap(reader, metric));
+					return npairsAll;
+				}
+			});
+			run(dataset, new Benchmark("pairs/" + name + "/tiled", true) {
+				protected long run()
+				{
+					consume(new TiledSimilarityBuilder(reader, metric).build());
+					return npairsAll;
+				}
+			});
+			run(dataset, new Benchmark("pairs/" + name + "/tiled-parallel", false) {
+				protected long run()
+				{
+					consume(new TiledSimilarityBuilder(reader, metric, nThreads).build());
+					return npairsAll;
+				}
+			});
+
+			// recommendations - a new recommender is created for each iteration, so that no recommendations are cached
+			if(!isSelected("recommend/" + name))
+				continue;
+			final SimilarityMap simMap = new CandidateSimilarityBuilder(reader, metric).build();
+			final Integer[] targetIds = itemIds;
+			run(dataset, new Benchmark("recommend/" + name + "/all", true) {
+				private NonPersonalisedRecommender alg;
+
+				protected void setup()
+				{
+					alg = new NonPersonalisedRecommender(simMap);
+				}
+
+				protected long run()
+				{
+					for(Integer id: targetIds)
+						consume(alg.getRecommendations(id));
+					return targetIds.length;
+				}
+			});
+			run(dataset, new Benchmark("recommend/" + name + "/top" + k, true) {
+				private NonPersonalisedRecommender alg;
+
+				protected void setup()
+				{
+					alg = new NonPersonalisedRecommender(simMap);
+				}
+
+				protected long run()
+				{
+					for(Integer id: targetIds)
+						consume(alg.getRecommendations(id, k));
+					return targetIds.length;
+				}
+			});
+		}
+	}
+
+	/**
+	 * runs a benchmark (if selected) and outputs its results
+	 * @param dataset - the description of the dataset
+	 * @param benchmark - the benchmark
+	 */
+	private static void run(final String dataset, final Benchmark benchmark)
+	{
+		if(isSelected(benchmark.getName()))
+			System.out.println(dataset + "," + benchmark.measure(warmupIterations, iterations));
+	}
+
+	/**
+	 * @returns true if a benchmark is to be run (or, given a prefix of a benchmark name, if any benchmarks with the prefix may be run)
+	 * @param name - the name of the benchmark
+	 */
+	private static boolean isSelected(final String name)
+	{
+		if(only == null)
+			return true;
+
+		for(String prefix: only)
+			if(name.startsWith(prefix) || prefix.startsWith(name))
+				return true;
+		return false;
+	}
+}
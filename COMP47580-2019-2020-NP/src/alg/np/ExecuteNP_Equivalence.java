@@ -0,0 +1,368 @@
+/**
+ * A class to check that each way of building a similarity map gives the same map as the baseline - the
+ * SimilarityMap constructor which evaluates the similarity metric for each pair of items in turn. For each
+ * metric, the maps of all neighbours built as follows must hold identical similarities to the baseline map:
+ * - in parallel, by SimilarityMap
+ * - from candidate pairs, by CandidateSimilarityBuilder
+ * - in tiles, sequentially and in parallel, by TiledSimilarityBuilder
+ * - as a sparse matrix product, sequentially and in parallel, by RatingProductBuilder (RatingMetric only)
+ * - from co-occurrence counts, by CoOccurrenceBuilder (IncConfidenceMetric only)
+ * The bounded maps built as follows, which retain the top-N neighbours of each item, must hold the top-N
+ * neighbours of the baseline map, with the same neighbour counts:
+ * - in parallel, by SimilarityMap
+ * - from candidate pairs, by CandidateSimilarityBuilder
+ * - as a sparse matrix product, by RatingProductBuilder (RatingMetric only)
+ * - from co-occurrence counts, by CoOccurrenceBuilder (IncConfidenceMetric only)
+ * The recommendations made using the baseline map must be those of the original recommender, which ranked
+ * the neighbours held in a HashMap in a TreeSet of ScoredThingDsc, so that tied neighbours are ranked alike.
+ * The baseline map and the bounded map of CandidateSimilarityBuilder are also written to a
+ * MappedSimilarityMap file and read back. The maps read back must rank the neighbours and make the
+ * recommendations of the maps written whatever the format of the scores (ScoreFormat), and hold their
+ * similarities if the scores are stored in full precision (DOUBLE).
+ * The number of items for which each map differs from the baseline is output in CSV format, and the
+ * program exits with status 1 if any map differs. The genome scores file is optional - if it is missing,
+ * GenomeMetric is not checked.
+ */
+
+package alg.np;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import alg.np.similarity.CandidateSimilarityBuilder;
+import alg.np.similarity.CoOccurrenceBuilder;
+import alg.np.similarity.MappedSimilarityMap;
+import alg.np.similarity.RatingProductBuilder;
+import alg.np.similarity.SimilarityMap;
+import alg.np.similarity.SimilarityStore;
+import alg.np.similarity.TiledSimilarityBuilder;
+import alg.np.similarity.metric.GenomeMetric;
+import alg.np.similarity.metric.GenreMetric;
+import alg.np.similarity.metric.IncConfidenceMetric;
+import alg.np.similarity.metric.RatingMetric;
+import alg.np.similarity.metric.SimilarityMetric;
+import profile.Profile;
+import util.ScoreFormat;
+import util.ScoredThingDsc;
+import util.reader.DatasetReader;
+
+public class ExecuteNP_Equivalence
+{
+	private static int nfailed = 0; // the number of maps which differ from the baseline
+
+	/**
+	 * @param args - optionally the dataset folder (default ml-20m-2019-2020), the number of worker threads
+	 * (default 2) and the maximum number of neighbours retained per item by the bounded maps (default 10)
+	 */
+	public static void main(String[] args)
+	{
+		if(args.length > 3)
+		{
+			System.out.println("Usage: ExecuteNP_Equivalence [folder [nThreads [maxNeighbours]]]");
+			System.exit(1);
+		}
+
+		String folder = (args.length > 0) ? args[0] : "ml-20m-2019-2020";
+		int nThreads = (args.length > 1) ? Integer.parseInt(args[1]) : 2;
+		int maxNeighbours = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+		if(nThreads < 1)
+		{
+			System.out.println("Error - invalid number of threads");
+			System.exit(1);
+		}
+		if(maxNeighbours < 1)
+		{
+			System.out.println("Error - invalid number of neighbours");
+			System.exit(1);
+		}
+
+		String itemFile = folder + File.separator + "movies-sample.txt";
+		String itemGenomeScoresFile = folder + File.separator + "genome-scores-sample.txt";
+		String trainFile = folder + File.separator + "train.txt";
+		String testFile = folder + File.separator + "test.txt";
+
+		// the genome scores are optional - if the file is missing, an empty genome scores file is read instead
+		boolean hasGenomeScores = new File(itemGenomeScoresFile).exists();
+		if(!hasGenomeScores)
+		{
+			System.out.println("Genome scores file \"" + itemGenomeScoresFile + "\" not found - GenomeMetric is not checked");
+			itemGenomeScoresFile = createEmptyGenomeScoresFile();
+		}
+
+		DatasetReader reader = new DatasetReader(itemFile, itemGenomeScoresFile, trainFile, testFile);
+		System.out.println("metric,map,items,mismatches");
+
+		List<SimilarityMetric> metrics = new ArrayList<SimilarityMetric>();
+		metrics.add(new GenreMetric(reader));
+		if(hasGenomeScores)
+			metrics.add(new GenomeMetric(reader));
+		metrics.add(new RatingMetric(reader));
+		metrics.add(new IncConfidenceMetric(reader));
+
+		for(SimilarityMetric metric: metrics)
+		{
+			String name = metric.getClass().getSimpleName();
+			SimilarityMap baseline = new SimilarityMap(reader, metric);
+			report(name, "recommender/original", reader, compareOriginal(reader, baseline, maxNeighbours));
+
+			// the maps of all neighbours - the similarities must be identical
+			report(name, "parallel", reader, compareSimilarities(reader, baseline, new SimilarityMap(reader, metric, nThreads)));
+			report(name, "candidate", reader, compareSimilarities(reader, baseline, new CandidateSimilarityBuilder(reader, metric).build()));
+			report(name, "tiled", reader, compareSimilarities(reader, baseline, new TiledSimilarityBuilder(reader, metric).build()));
+			report(name, "tiled/parallel", reader, compareSimilarities(reader, baseline, new TiledSimilarityBuilder(reader, metric, nThreads).build()));
+			if(metric instanceof RatingMetric)
+			{
+				report(name, "product", reader, compareSimilarities(reader, baseline, new RatingProductBuilder(reader).build()));
+				report(name, "product/parallel", reader, compareSimilarities(reader, baseline, new RatingProductBuilder(reader, nThreads).build()));
+			}
+			if(metric instanceof IncConfidenceMetric)
+				report(name, "cooccurrence", reader, compareSimilarities(reader, baseline, new CoOccurrenceBuilder(reader).build()));
+
+			// the bounded maps - the neighbours must be the top-N neighbours of the baseline map
+			SimilarityMap bounded = new CandidateSimilarityBuilder(reader, metric, maxNeighbours).build();
+			report(name, "bounded/parallel", reader, compareNeighbours(reader, baseline, new SimilarityMap(reader, metric, nThreads, maxNeighbours), maxNeighbours, true));
+			report(name, "bounded/candidate", reader, compareNeighbours(reader, baseline, bounded, maxNeighbours, true));
+			if(metric instanceof RatingMetric)
+				report(name, "bounded/product", reader, compareNeighbours(reader, baseline, new RatingProductBuilder(reader, nThreads, maxNeighbours, 0).build(), maxNeighbours, true));
+			if(metric instanceof IncConfidenceMetric)
+				report(name, "bounded/cooccurrence", reader, compareNeighbours(reader, baseline, new CoOccurrenceBuilder(reader, maxNeighbours).build(), maxNeighbours, true));
+
+			// the mapped maps - the rankings must be identical in every score format
+			for(ScoreFormat format: ScoreFormat.values())
+			{
+				boolean exact = (format == ScoreFormat.DOUBLE);
+				MappedSimilarityMap mapped = writeAndRead(baseline, format);
+				int mismatches = compareRankings(reader, baseline, mapped, maxNeighbours);
+				if(exact)
+					mismatches += compareSimilarities(reader, baseline, mapped);
+				report(name, "mapped/" + format, reader, mismatches);
+				report(name, "mapped/bounded/" + format, reader, compareNeighbours(reader, baseline, writeAndRead(bounded, format), maxNeighbours, exact));
+			}
+		}
+
+		if(nfailed > 0)
+		{
+			System.out.println("Error - " + nfailed + " maps differ from the baseline");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * outputs the number of items for which a map differs from the baseline
+	 * @param metric - the name of the metric
+	 * @param map - the name of the map
+	 * @param reader - dataset reader
+	 * @param mismatches - the number of items for which the map differs from the baseline
+	 */
+	private static void report(final String metric, final String map, final DatasetReader reader, final int mismatches)
+	{
+		if(mismatches > 0)
+			nfailed++;
+		System.out.println(metric + "," + map + "," + reader.getItems().size() + "," + mismatches);
+	}
+
+	/**
+	 * @returns the number of items for which the similarities stored in a map differ from those stored in the baseline
+	 * @param reader - dataset reader
+	 * @param expected - the baseline map
+	 * @param actual - the map to compare
+	 */
+	private static int compareSimilarities(final DatasetReader reader, final SimilarityStore expected, final SimilarityStore actual)
+	{
+		Set<Integer> ids = new TreeSet<Integer>(reader.getItems().keySet());
+		ids.addAll(expected.getIds());
+		ids.addAll(actual.getIds());
+
+		int mismatches = 0;
+		for(Integer id: ids)
+			if(!isEqual(expected.getSimilarities(id), actual.getSimilarities(id)))
+				mismatches++;
+		return mismatches;
+	}
+
+	/**
+	 * @returns the number of items for which the neighbours of a bounded map are not the top-N neighbours of
+	 * the baseline map, or the neighbour counts (or, if exact, the similarities to the neighbours) differ
+	 * @param reader - dataset reader
+	 * @param expected - the baseline map, which retains all neighbours
+	 * @param actual - the bounded map to compare
+	 * @param maxNeighbours - the maximum number of neighbours retained per item by the bounded map
+	 * @param exact - true if the similarities to the neighbours must be identical
+	 */
+	private static int compareNeighbours(final DatasetReader reader, final SimilarityStore expected, final SimilarityStore actual,
+			final int maxNeighbours, final boolean exact)
+	{
+		int mismatches = 0;
+		for(Integer id: reader.getItems().keySet())
+		{
+			int[] neighbours = actual.getNeighbours(id);
+			if(neighbours == null)
+				neighbours = new int[0];
+
+			boolean equal = Arrays.equals(expected.getTopNeighbours(id, maxNeighbours), neighbours) &&
+					expected.getNeighbourCount(id) == actual.getNeighbourCount(id);
+			if(exact)
+				for(int neighbour: neighbours)
+					if(expected.getSimilarity(id, neighbour) != actual.getSimilarity(id, neighbour))
+						equal = false;
+			if(!equal)
+				mismatches++;
+		}
+		return mismatches;
+	}
+
+	/**
+	 * @returns the number of items for which the ranked neighbours or recommendations made using a map differ
+	 * from those made using the baseline map
+	 * @param reader - dataset reader
+	 * @param expected - the baseline map
+	 * @param actual - the map to compare
+	 * @param k - the number of neighbours and recommendations compared
+	 */
+	private static int compareRankings(final DatasetReader reader, final SimilarityStore expected, final SimilarityStore actual, final int k)
+	{
+		NonPersonalisedRecommender expectedAlg = new NonPersonalisedRecommender(expected);
+		NonPersonalisedRecommender actualAlg = new NonPersonalisedRecommender(actual);
+
+		int mismatches = 0;
+		for(Integer id: reader.getItems().keySet())
+			if(!Arrays.equals(expected.getTopNeighbours(id, k), actual.getTopNeighbours(id, k)) ||
+					!Arrays.equals(expected.getTopNeighbours(id, Integer.MAX_VALUE), actual.getTopNeighbours(id, Integer.MAX_VALUE)) ||
+					!Arrays.equals(expectedAlg.getRecommendations(id, k), actualAlg.getRecommendations(id, k)) ||
+					!expectedAlg.getRecommendations(id).equals(actualAlg.getRecommendations(id)))
+				mismatches++;
+		return mismatches;
+	}
+
+	/**
+	 * @returns the number of items for which the recommendations made using the baseline map differ from those
+	 * of the original recommender - the neighbours of each item are added to a HashMap in the order in which the
+	 * original SimilarityMap added them, and those with a similarity greater than 0 are ranked in a TreeSet of
+	 * ScoredThingDsc in the iteration order of the HashMap
+	 * @param reader - dataset reader
+	 * @param baseline - the baseline map
+	 * @param k - the number of recommendations compared
+	 */
+	private static int compareOriginal(final DatasetReader reader, final SimilarityMap baseline, final int k)
+	{
+		NonPersonalisedRecommender alg = new NonPersonalisedRecommender(baseline);
+		List<Integer> itemIds = new ArrayList<Integer>(reader.getItems().keySet());
+
+		int mismatches = 0;
+		for(Integer id: itemIds)
+		{
+			Profile profile = baseline.getSimilarities(id);
+
+			// the original map visited each item id1 in turn, and each item id2 < id1 for each id1
+			Map<Integer,Double> sims = new HashMap<Integer,Double>();
+			if(profile != null)
+				for(Integer id1: itemIds)
+				{
+					if(id1.equals(id))
+					{
+						for(Integer id2: itemIds)
+							if(id2 < id && profile.contains(id2))
+								sims.put(id2, profile.getValue(id2, 0));
+					}
+					else if(id1 > id && profile.contains(id1))
+						sims.put(id1, profile.getValue(id1, 0));
+				}
+
+			SortedSet<ScoredThingDsc> ss = new TreeSet<ScoredThingDsc>();
+			for(Integer neighbour: sims.keySet())
+			{
+				double sim = sims.get(neighbour);
+				if(sim > 0)
+					ss.add(new ScoredThingDsc(sim, neighbour));
+			}
+
+			List<Integer> recs = new ArrayList<Integer>();
+			for(ScoredThingDsc st: ss)
+				recs.add((Integer)st.thing);
+
+			int[] topRecs = new int[Math.min(k, recs.size())];
+			for(int i = 0; i < topRecs.length; i++)
+				topRecs[i] = recs.get(i);
+
+			if(!recs.equals(alg.getRecommendations(id)) || !Arrays.equals(topRecs, alg.getRecommendations(id, k)))
+				mismatches++;
+		}
+		return mismatches;
+	}
+
+	/**
+	 * @returns true if two similarity profiles hold the same similarities
+	 * @param expected - the first profile (or null)
+	 * @param actual - the second profile (or null)
+	 */
+	private static boolean isEqual(final Profile expected, final Profile actual)
+	{
+		if(expected == null || actual == null)
+			return expected == actual;
+		if(expected.getSize() != actual.getSize())
+			return false;
+
+		for(int i = 0; i < expected.getSize(); i++)
+		{
+			int id = expected.getIdAt(i);
+			if(!actual.contains(id) || actual.getValue(id, 0) != expected.getValueAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @returns the map read back from a temporary MappedSimilarityMap file to which a map is written
+	 * @param simMap - the map
+	 * @param format - the format of the scores
+	 */
+	private static MappedSimilarityMap writeAndRead(final SimilarityStore simMap, final ScoreFormat format)
+	{
+		MappedSimilarityMap mapped = null;
+		try
+		{
+			File file = File.createTempFile("simmap", ".bin");
+			file.deleteOnExit();
+			MappedSimilarityMap.write(simMap, file.getPath(), format);
+			mapped = new MappedSimilarityMap(file.getPath());
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+		return mapped;
+	}
+
+	/**
+	 * @returns the path of a temporary genome scores file which holds only the header line
+	 */
+	private static String createEmptyGenomeScoresFile()
+	{
+		String filename = null;
+		try
+		{
+			File file = File.createTempFile("genome-scores", ".txt");
+			file.deleteOnExit();
+			FileWriter writer = new FileWriter(file);
+			writer.write("movieId,tagId,relevance\n");
+			writer.close();
+			filename = file.getPath();
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+		return filename;
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ * A class to report the effect of storing scores at a lower precision (see ScoreFormat) on the
+ * similarities computed and the recommendations made. Two stores are measured, in each format:
+ * - the genome matrix: the genome similarity map is built from genome scores held in the format, so the
+ *   error in each genome score is carried into the similarities, and so into the ranking of neighbours
+ * - the similarity rows: the similarity map of each metric is written to a MappedSimilarityMap file with
+ *   its scores held in the format, and read back
+ * Each is compared against full precision (DOUBLE) scores: the bytes used, the maximum and mean absolute
+ * error in a similarity, the percentage of target items for which the top-k recommendations made by a
+ * NonPersonalisedRecommender are identical (in order), and the mean overlap of the top-k recommendations.
+ * The results are output in CSV format.
+ */
+
+package alg.np;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import alg.np.similarity.CandidateSimilarityBuilder;
+import alg.np.similarity.MappedSimilarityMap;
+import alg.np.similarity.SimilarityMap;
+import alg.np.similarity.SimilarityStore;
+import alg.np.similarity.metric.GenomeMetric;
+import alg.np.similarity.metric.GenreMetric;
+import alg.np.similarity.metric.IncConfidenceMetric;
+import alg.np.similarity.metric.RatingMetric;
+import alg.np.similarity.metric.SimilarityMetric;
+import profile.GenomeMatrix;
+import profile.Profile;
+import util.ScoreFormat;
+import util.reader.DatasetReader;
+
+public class ExecuteNP_ScoreFormats
+{
+	/**
+	 * @param args - optionally the dataset folder (default ml-20m-2019-2020) and the number of recommendations k (default 10)
+	 */
+	public static void main(String[] args)
+	{
+		if(args.length > 2)
+		{
+			System.out.println("Usage: ExecuteNP_ScoreFormats [folder [k]]");
+			System.exit(1);
+		}
+
+		String folder = (args.length > 0) ? args[0] : "ml-20m-2019-2020";
+		int k = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+		String itemFile = folder + File.separator + "movies-sample.txt";
+		String itemGenomeScoresFile = folder + File.separator + "genome-scores-sample.txt";
+		String trainFile = folder + File.separator + "train.txt";
+		String testFile = folder + File.separator + "test.txt";
+
+		DatasetReader reader = new DatasetReader(itemFile, itemGenomeScoresFile, trainFile, testFile);
+		System.out.println("store,format,bytes,max error,mean error,identical top-" + k + " (%),mean overlap@" + k);
+
+		// the genome matrix - the genome similarity map is rebuilt from the genome scores held in each format
+		reader.setGenomeScoreFormat(ScoreFormat.DOUBLE);
+		SimilarityMap genomeMap = new CandidateSimilarityBuilder(reader, new GenomeMetric(reader)).build();
+		for(ScoreFormat format: ScoreFormat.values())
+		{
+			reader.setGenomeScoreFormat(format);
+			GenomeMatrix matrix = reader.getItemGenomeMatrix();
+			long bytes = (long)format.getBytes() * matrix.getRowCount() * matrix.getStride();
+			SimilarityMap simMap = new CandidateSimilarityBuilder(reader, new GenomeMetric(reader)).build();
+			report("genome", format, bytes, reader, genomeMap, simMap, k);
+		}
+		reader.setGenomeScoreFormat(ScoreFormat.FLOAT);
+
+		// the similarity rows - the similarity map of each metric is written in each format and read back
+		SimilarityMetric[] metrics = {
+				new GenreMetric(reader),
+				new GenomeMetric(reader),
+				new RatingMetric(reader),
+				new IncConfidenceMetric(reader)
+		};
+
+		for(SimilarityMetric metric: metrics)
+		{
+			SimilarityMap simMap = new CandidateSimilarityBuilder(reader, metric).build();
+			for(ScoreFormat format: ScoreFormat.values())
+			{
+				try
+				{
+					File file = File.createTempFile("simmap", ".bin");
+					MappedSimilarityMap.write(simMap, file.getPath(), format);
+					MappedSimilarityMap mappedMap = new MappedSimilarityMap(file.getPath());
+					report("rows/" + metric.getClass().getSimpleName(), format, file.length(), reader, simMap, mappedMap, k);
+					file.delete();
+				}
+				catch(IOException e)
+				{
+					e.printStackTrace();
+					System.exit(0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * compares a similarity store against the full precision store and outputs the results
+	 * @param store - the name of the store
+	 * @param format - the format of the scores
+	 * @param bytes - the number of bytes used to store the scores
+	 * @param reader - dataset reader
+	 * @param exact - the full precision similarity store
+	 * @param approx - the similarity store to compare
+	 * @param k - the number of recommendations
+	 */
+	private static void report(final String store, final ScoreFormat format, final long bytes, final DatasetReader reader,
+			final SimilarityStore exact, final SimilarityStore approx, final int k)
+	{
+		// the error in each similarity stored in either map (a similarity not stored is 0)
+		double maxError = 0, sumError = 0;
+		long nsims = 0;
+		for(Integer id: reader.getItems().keySet())
+		{
+			Profile exactSims = exact.getSimilarities(id);
+			Profile approxSims = approx.getSimilarities(id);
+			if(exactSims != null)
+				for(int i = 0; i < exactSims.getSize(); i++)
+				{
+					double error = Math.abs(exactSims.getValueAt(i) - ((approxSims != null) ? approxSims.getValue(exactSims.getIdAt(i), 0) : 0));
+					maxError = Math.max(maxError, error);
+					sumError += error;
+					nsims++;
+				}
+			if(approxSims != null)
+				for(int i = 0; i < approxSims.getSize(); i++)
+					if(exactSims == null || !exactSims.contains(approxSims.getIdAt(i)))
+					{
+						double error = Math.abs(approxSims.getValueAt(i));
+						maxError = Math.max(maxError, error);
+						sumError += error;
+						nsims++;
+					}
+		}
+
+		// the top-k recommendations made for each target item
+		NonPersonalisedRecommender exactAlg = new NonPersonalisedRecommender(exact);
+		NonPersonalisedRecommender approxAlg = new NonPersonalisedRecommender(approx);
+		int ntargets = 0, nidentical = 0;
+		double sumOverlap = 0;
+		for(Integer id: reader.getItems().keySet())
+		{
+			int[] exactRecs = exactAlg.getRecommendations(id, k);
+			int[] approxRecs = approxAlg.getRecommendations(id, k);
+			ntargets++;
+			if(Arrays.equals(exactRecs, approxRecs))
+				nidentical++;
+
+			int overlap = 0;
+			for(int x: exactRecs)
+				for(int y: approxRecs)
+					if(x == y)
+						overlap++;
+			sumOverlap += (exactRecs.length > 0) ? (double)overlap / exactRecs.length : 1;
+		}
+
+		System.out.println(store + "," + format + "," + bytes + "," + maxError + "," + ((nsims > 0) ? sumError / nsims : 0) + "," +
+				((ntargets > 0) ? 100.0 * nidentical / ntargets : 0) + "," + ((ntargets > 0) ? sumOverlap / ntargets : 0));
+	}
+}
@@ -1,19 +1,26 @@
 package alg.np;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import alg.np.similarity.SimilarityMap;
+import alg.np.similarity.SimilarityStore;
+import alg.np.similarity.SimilarityUpdater;
 import alg.np.similarity.metric.SimilarityMetric;
-import profile.Profile;
-import util.ScoredThingDsc;
+import util.IdDictionary;
 import util.reader.DatasetReader;
 
 public class NonPersonalisedRecommender {
-	private SimilarityMap simMap; // similarity map - stores all item-item similarities
+	private static final int[] NO_RECS = new int[0]; // the recommendations returned when none are requested
+
+	private SimilarityStore simMap; // similarity map - stores all item-item similarities
+	private IdDictionary itemDictionary; // the dense index of each item whose recommendations are cached
+	private AtomicReferenceArray<TopRecs> topRecs; // caches the top recommendations computed for each item by dense index
+	private SimilarityUpdater updater; // updates the similarity map as ratings are added (null if ratings cannot be added)
 
 	/**
 	 * constructor - creates a new NonPersonalisedRecommender object
@@ -22,6 +29,72 @@ public class NonPersonalisedRecommender {
 	 */
 	public NonPersonalisedRecommender(final DatasetReader reader, final SimilarityMetric metric) {
 		this.simMap = new SimilarityMap(reader, metric);
+		createCache(reader.getItems().keySet());
+	}
+
+	/**
+	 * constructor - creates a new NonPersonalisedRecommender object, computing the item-item similarities in parallel
+	 * @param reader - dataset reader
+	 * @param metric - the item-item similarity metric
+	 * @param nThreads - the number of worker threads used to compute the similarities
+	 */
+	public NonPersonalisedRecommender(final DatasetReader reader, final SimilarityMetric metric, final int nThreads) {
+		this.simMap = new SimilarityMap(reader, metric, nThreads);
+		createCache(reader.getItems().keySet());
+	}
+
+	/**
+	 * constructor - creates a new NonPersonalisedRecommender object from precomputed item-item similarities
+	 * (e.g. a SimilarityMap, or a MappedSimilarityMap served from a file)
+	 * @param simMap - similarity map
+	 */
+	public NonPersonalisedRecommender(final SimilarityStore simMap) {
+		this.simMap = simMap;
+		createCache(simMap.getIds());
+	}
+
+	/**
+	 * constructor - creates a new NonPersonalisedRecommender object whose item-item similarities are updated as ratings are added
+	 * @param updater - similarity updater
+	 */
+	public NonPersonalisedRecommender(final SimilarityUpdater updater) {
+		this.simMap = updater.getSimilarityMap();
+		this.updater = updater;
+		createCache(simMap.getIds());
+	}
+
+	/**
+	 * creates the cache of top recommendations, indexed by the dense index of each item - the
+	 * recommendations of any other item (e.g. one which has no similarities when the recommender
+	 * is created) are computed each time they are requested
+	 * @param itemIds - the IDs of the items whose recommendations are cached
+	 */
+	private void createCache(final Collection<Integer> itemIds) {
+		itemDictionary = new IdDictionary(itemIds);
+		topRecs = new AtomicReferenceArray<TopRecs>(itemDictionary.getSize());
+	}
+
+	/**
+	 * adds a rating, updating the item-item similarities and discarding the cached recommendations of the items affected
+	 * @param userId - the user ID
+	 * @param itemId - the item ID
+	 * @param rating - the rating
+	 */
+	public void addRating(final Integer userId, final Integer itemId, final double rating)
+	{
+		if(updater == null)
+		{
+			System.out.println("Error - ratings cannot be added to a recommender created without a similarity updater");
+			System.exit(1);
+		}
+
+		Set<Integer> updated = updater.addRating(userId, itemId, rating);
+		for(Integer id: updated)
+		{
+			int index = itemDictionary.getIndex(id.intValue());
+			if(index >= 0)
+				topRecs.set(index, null);
+		}
 	}
 
 	/**
@@ -33,27 +106,71 @@ public class NonPersonalisedRecommender {
 		// create a list to store recommendations
 		List<Integer> recs = new ArrayList<Integer>();
 
-		SortedSet<ScoredThingDsc> ss = new TreeSet<ScoredThingDsc>(); // store all similarities in order of descending similarity in a sorted set
+		// the neighbours are ranked by the similarity store - all neighbours with a similarity greater than 0,
+		// in descending order of similarity (ties in the order of the original recommender), or the ranked
+		// neighbours of a bounded map. A MappedSimilarityMap ranks its rows using the full precision
+		// similarities, so the recommendations do not depend on the format of the scores stored
+		for(int id: simMap.getTopNeighbours(itemId, Integer.MAX_VALUE))
+			recs.add(id);
 
-		Profile profile = simMap.getSimilarities(itemId); // get the item similarity profile
-		if(profile != null)
+		return recs;
+	}
+
+	/**
+	 * @returns the top-k recommendations based on the target item, in descending order of similarity - 
+	 * the recommendations are selected without sorting all neighbours, and are cached for each target item.
+	 * The array returned may be the cached array itself, so it is read-only and must not be modified.
+	 * @param itemId - the target item ID
+	 * @param k - the maximum number of recommendations
+	 */
+	public int[] getRecommendations(final Integer itemId, final int k)
+	{
+		if(k < 0)
 		{
-			for(Integer id: profile.getIds()) // iterate over each item in the profile
-			{
-				double sim = profile.getValue(id);
-				if(sim > 0)
-					ss.add(new ScoredThingDsc(sim, id));
-			}
+			System.out.println("Error - invalid number of recommendations");
+			System.exit(1);
 		}
+		if(k == 0)
+			return NO_RECS; // nothing is cached, so the cached recommendations of the item are kept
+
+		int index = itemDictionary.getIndex(itemId.intValue());
+		if(index < 0)
+			return simMap.getTopNeighbours(itemId, k); // the recommendations of the item are not cached
 
-		// save all recommended items in descending order of similarity in the list
-		for(Iterator<ScoredThingDsc> iter = ss.iterator(); iter.hasNext(); )
+		TopRecs cached = topRecs.get(index);
+
+		// recompute if the cached recommendations were truncated to fewer than k items
+		if(cached == null || (cached.k < k && cached.ids.length == cached.k))
 		{
-			ScoredThingDsc st = iter.next();
-			Integer id = (Integer)st.thing;
-			recs.add(id);
+			cached = new TopRecs(k, simMap.getTopNeighbours(itemId, k));
+			topRecs.set(index, cached);
 		}
 
-		return recs;
+		return (cached.ids.length > k) ? Arrays.copyOf(cached.ids, k) : cached.ids;
+	}
+
+	/**
+	 * @returns the number of items which could be recommended for the target item (i.e. those items
+	 * with a similarity greater than 0), including any not retained by a bounded similarity map
+	 * @param itemId - the target item ID
+	 */
+	public int getNeighbourCount(final Integer itemId)
+	{
+		return simMap.getNeighbourCount(itemId);
+	}
+
+	/**
+	 * the top recommendations computed for an item
+	 */
+	private static class TopRecs
+	{
+		private final int k; // the number of recommendations requested
+		private final int[] ids; // the recommended item ids
+
+		TopRecs(final int k, final int[] ids)
+		{
+			this.k = k;
+			this.ids = ids;
+		}
 	}
-}
+}
\ No newline at end of file
@@ -0,0 +1,438 @@
+/**
+ * This class serves "more like this" recommendations over HTTP from a precomputed similarity map. The
+ * responses are JSON, and list the recommended items in descending order of similarity with their titles
+ * and similarities:
+ * - GET /similar/{itemId}?k=n returns the top-n recommendations for an item (k defaults to 10)
+ * - GET /similar?ids=id,id,...&k=n, or POST /similar?k=n with the item ids (separated by commas or
+ *   whitespace) in the request body, returns the top-n recommendations for each of a batch of items in a
+ *   single response, so that the cost of a request is shared by many lookups
+ * - GET /stats returns the number of requests and the p50, p99 and maximum latencies of each endpoint
+ * Requests are handled by a fixed pool of threads. The recommendations of each item are cached by the
+ * NonPersonalisedRecommender once computed.
+ */
+
+package alg.np;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import alg.np.similarity.MappedSimilarityMap;
+import alg.np.similarity.SimilarityStore;
+import util.Item;
+import util.LatencyHistogram;
+import util.reader.DatasetReader;
+
+public class RecommendationServer
+{
+	private static final int DEFAULT_K = 10; // the number of recommendations returned if k is not given
+	private static final int MAX_K = 1000; // the maximum number of recommendations returned per item
+	private static final int MAX_BATCH_SIZE = 10000; // the maximum number of items per batch request
+	private static final int MAX_BODY_SIZE = 16 * MAX_BATCH_SIZE; // the maximum size of a request body in bytes (an id of up to 10 digits and its separators per item, with room for whitespace)
+
+	private DatasetReader reader; // dataset reader - provides the item titles
+	private SimilarityStore simMap; // similarity map
+	private NonPersonalisedRecommender alg; // the recommender
+	private Map<String,LatencyHistogram> latencies; // the latencies of each endpoint
+	private HttpServer server; // the HTTP server (null if not started)
+	private ExecutorService executor; // the threads which handle requests
+
+	/**
+	 * serves recommendations from a similarity map file written by MappedSimilarityMap
+	 * @param args - the item file, genome scores file, train file, test file, similarity map file and port,
+	 * and optionally the number of threads which handle requests
+	 */
+	public static void main(String[] args)
+	{
+		if(args.length != 6 && args.length != 7)
+		{
+			System.out.println("Usage: RecommendationServer itemFile itemGenomeScoresFile trainFile testFile simMapFile port [nThreads]");
+			System.exit(1);
+		}
+
+		DatasetReader reader = new DatasetReader(args[0], args[1], args[2], args[3]);
+		SimilarityStore simMap = new MappedSimilarityMap(args[4]);
+		int port = Integer.parseInt(args[5]);
+		int nThreads = (args.length == 7) ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+
+		RecommendationServer server = new RecommendationServer(reader, simMap);
+		server.start(port, nThreads);
+		System.out.println("Serving recommendations on port " + server.getPort());
+	}
+
+	/**
+	 * constructor - creates a new RecommendationServer object
+	 * @param reader - dataset reader
+	 * @param simMap - similarity map
+	 */
+	public RecommendationServer(final DatasetReader reader, final SimilarityStore simMap)
+	{
+		this.reader = reader;
+		this.simMap = simMap;
+		this.alg = new NonPersonalisedRecommender(simMap);
+
+		latencies = new LinkedHashMap<String,LatencyHistogram>();
+		latencies.put("similar", new LatencyHistogram());
+		latencies.put("batch", new LatencyHistogram());
+	}
+
+	/**
+	 * starts serving requests
+	 * @param port - the port (0 to use any free port)
+	 * @param nThreads - the number of threads which handle requests
+	 */
+	public void start(final int port, final int nThreads)
+	{
+		if(nThreads < 1)
+		{
+			System.out.println("Error - invalid number of threads");
+			System.exit(1);
+		}
+
+		try
+		{
+			server = HttpServer.create(new InetSocketAddress(port), 0);
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			System.exit(0);
+		}
+
+		executor = Executors.newFixedThreadPool(nThreads);
+		server.setExecutor(executor);
+		server.createContext("/similar", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				handleSimilar(exchange);
+			}
+		});
+		server.createContext("/stats", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				handleStats(exchange);
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * stops serving requests
+	 */
+	public void stop()
+	{
+		if(server != null)
+		{
+			server.stop(0);
+			executor.shutdown();
+			server = null;
+		}
+	}
+
+	/**
+	 * @returns the port on which requests are served
+	 */
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * @returns the latencies of an endpoint ("similar" or "batch")
+	 * @param endpoint - the endpoint
+	 */
+	public LatencyHistogram getLatencies(final String endpoint)
+	{
+		return latencies.get(endpoint);
+	}
+
+	/**
+	 * handles a request for the recommendations of one item (/similar/{itemId}) or a batch of items (/similar)
+	 * @param exchange - the request and response
+	 */
+	private void handleSimilar(final HttpExchange exchange) throws IOException
+	{
+		long start = System.nanoTime();
+		String path = exchange.getRequestURI().getPath();
+		boolean batch = path.equals("/similar") || path.equals("/similar/");
+
+		try
+		{
+			String method = exchange.getRequestMethod();
+			if(!method.equals("GET") && !(batch && method.equals("POST")))
+			{
+				sendError(exchange, 405, "method not allowed");
+				return;
+			}
+
+			Map<String,String> params = getParameters(exchange.getRequestURI().getRawQuery());
+			int k = DEFAULT_K;
+			if(params.containsKey("k"))
+			{
+				k = parseInt(params.get("k"));
+				if(k < 1 || k > MAX_K)
+				{
+					sendError(exchange, 400, "k must be from 1 to " + MAX_K);
+					return;
+				}
+			}
+
+			if(!batch)
+			{
+				int itemId = parseInt(path.substring("/similar/".length()));
+				if(itemId < 0 || reader.getItem(itemId) == null)
+				{
+					sendError(exchange, (itemId < 0) ? 400 : 404, "unknown item " + path.substring("/similar/".length()));
+					return;
+				}
+
+				StringBuilder sb = new StringBuilder();
+				appendRecommendations(sb, itemId, k);
+				send(exchange, 200, sb.toString());
+				return;
+			}
+
+			// the item ids are given in the query (GET) or the request body (POST) - reading stops at MAX_BODY_SIZE bytes,
+			// so that a large request cannot exhaust the memory of the server
+			String idList = method.equals("POST") ? readBody(exchange, MAX_BODY_SIZE) : params.get("ids");
+			if(method.equals("POST") && idList == null)
+			{
+				sendError(exchange, 413, "the request body must not exceed " + MAX_BODY_SIZE + " bytes");
+				return;
+			}
+			List<Integer> itemIds = new ArrayList<Integer>();
+			if(idList != null)
+				for(String token: idList.trim().split("[,\\s]+"))
+					if(!token.isEmpty())
+					{
+						int itemId = parseInt(token);
+						if(itemId < 0)
+						{
+							sendError(exchange, 400, "invalid item id " + token);
+							return;
+						}
+						itemIds.add(itemId);
+					}
+			if(itemIds.isEmpty() || itemIds.size() > MAX_BATCH_SIZE)
+			{
+				sendError(exchange, 400, "a batch must contain from 1 to " + MAX_BATCH_SIZE + " item ids");
+				return;
+			}
+
+			StringBuilder sb = new StringBuilder("{\"results\":[");
+			for(int i = 0; i < itemIds.size(); i++)
+			{
+				if(i > 0)
+					sb.append(',');
+				int itemId = itemIds.get(i);
+				if(reader.getItem(itemId) != null)
+					appendRecommendations(sb, itemId, k);
+				else
+					sb.append("{\"id\":").append(itemId).append(",\"error\":\"unknown item\"}");
+			}
+			sb.append("]}");
+			send(exchange, 200, sb.toString());
+		}
+		finally
+		{
+			exchange.close();
+			latencies.get(batch ? "batch" : "similar").record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * handles a request for the latencies of the endpoints (/stats)
+	 * @param exchange - the request and response
+	 */
+	private void handleStats(final HttpExchange exchange) throws IOException
+	{
+		try
+		{
+			StringBuilder sb = new StringBuilder("{");
+			boolean first = true;
+			for(Map.Entry<String,LatencyHistogram> entry: latencies.entrySet())
+			{
+				LatencyHistogram h = entry.getValue();
+				if(!first)
+					sb.append(',');
+				first = false;
+				sb.append('"').append(entry.getKey()).append("\":{\"count\":").append(h.getCount())
+					.append(",\"p50_us\":").append(h.getPercentile(50))
+					.append(",\"p99_us\":").append(h.getPercentile(99))
+					.append(",\"max_us\":").append(h.getMax()).append('}');
+			}
+			sb.append('}');
+			send(exchange, 200, sb.toString());
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	/**
+	 * appends the top-k recommendations of an item to a JSON response
+	 * @param sb - the response
+	 * @param itemId - the target item ID
+	 * @param k - the maximum number of recommendations
+	 */
+	private void appendRecommendations(final StringBuilder sb, final Integer itemId, final int k)
+	{
+		sb.append("{\"id\":").append(itemId).append(",\"title\":");
+		appendString(sb, reader.getItem(itemId).getName());
+		sb.append(",\"similar\":[");
+
+		int[] recs = alg.getRecommendations(itemId, k);
+		for(int i = 0; i < recs.length; i++)
+		{
+			if(i > 0)
+				sb.append(',');
+			Item item = reader.getItem(recs[i]);
+			sb.append("{\"id\":").append(recs[i]).append(",\"title\":");
+			appendString(sb, (item != null) ? item.getName() : null);
+			sb.append(",\"score\":").append(simMap.getSimilarity(itemId, recs[i])).append('}');
+		}
+		sb.append("]}");
+	}
+
+	/**
+	 * appends a string to a JSON response as a quoted, escaped string (or null)
+	 * @param sb - the response
+	 * @param s - the string
+	 */
+	private static void appendString(final StringBuilder sb, final String s)
+	{
+		if(s == null)
+		{
+			sb.append("null");
+			return;
+		}
+
+		sb.append('"');
+		for(int i = 0; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if(c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if(c < 0x20)
+				sb.append(String.format("\\u%04x", (int)c));
+			else
+				sb.append(c);
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * @returns the query parameters of a request
+	 * @param query - the raw query string (may be null)
+	 */
+	private static Map<String,String> getParameters(final String query) throws IOException
+	{
+		Map<String,String> params = new LinkedHashMap<String,String>();
+		if(query == null)
+			return params;
+
+		for(String param: query.split("&"))
+		{
+			int index = param.indexOf('=');
+			if(index > 0)
+				params.put(URLDecoder.decode(param.substring(0, index), "UTF-8"), URLDecoder.decode(param.substring(index + 1), "UTF-8"));
+		}
+		return params;
+	}
+
+	/**
+	 * @returns a non-negative integer, or -1 if the string is not one
+	 * @param s - the string
+	 */
+	private static int parseInt(final String s)
+	{
+		try
+		{
+			int n = Integer.parseInt(s);
+			return (n >= 0) ? n : -1;
+		}
+		catch(NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * @returns the body of a request, or null if the body is larger than a maximum size - no more than
+	 * the maximum size (plus one buffer) is read
+	 * @param exchange - the request and response
+	 * @param maxBytes - the maximum size of the body in bytes
+	 */
+	private static String readBody(final HttpExchange exchange, final int maxBytes) throws IOException
+	{
+		String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+		if(contentLength != null)
+		{
+			try
+			{
+				if(Long.parseLong(contentLength.trim()) > maxBytes)
+					return null;
+			}
+			catch(NumberFormatException e)
+			{
+				// the length is checked as the body is read
+			}
+		}
+
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		for(int n = in.read(buf); n > 0; n = in.read(buf))
+		{
+			out.write(buf, 0, n);
+			if(out.size() > maxBytes)
+				return null;
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * sends an error response
+	 * @param exchange - the request and response
+	 * @param status - the HTTP status code
+	 * @param message - the error message
+	 */
+	private static void sendError(final HttpExchange exchange, final int status, final String message) throws IOException
+	{
+		StringBuilder sb = new StringBuilder("{\"error\":");
+		appendString(sb, message);
+		sb.append('}');
+		send(exchange, status, sb.toString());
+	}
+
+	/**
+	 * sends a JSON response
+	 * @param exchange - the request and response
+	 * @param status - the HTTP status code
+	 * @param json - the response body
+	 */
+	private static void send(final HttpExchange exchange, final int status, final String json) throws IOException
+	{
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+}
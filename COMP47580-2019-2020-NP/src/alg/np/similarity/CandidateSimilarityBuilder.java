@@ -0,0 +1,356 @@
+/**
+ * This class builds a SimilarityMap by evaluating the similarity metric only for those item pairs
+ * which can have a non-zero similarity. Candidate pairs are generated from inverted indexes:
+ * items rated by a common user (RatingMetric, IncConfidenceMetric) or items sharing a genre 
+ * (GenreMetric). Genome similarities (GenomeMetric) are computed for all pairs over the dense genome
+ * vectors, in blocks of items whose vectors fit in the cache together. The cost of the build is
+ * proportional to the number of co-occurring pairs rather than the square of the number of items,
+ * and the map built is identical to that built by evaluating all pairs. The rating similarities are
+ * computed from the dot products (RatingMetric) or the co-occurrence counts (IncConfidenceMetric)
+ * accumulated while the candidates are generated, so the item profiles are not intersected again.
+ */
+
+package alg.np.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import alg.np.similarity.metric.GenomeMetric;
+import alg.np.similarity.metric.GenreMetric;
+import alg.np.similarity.metric.IncConfidenceMetric;
+import alg.np.similarity.metric.RatingMetric;
+import alg.np.similarity.metric.SimilarityMetric;
+import profile.GenomeMatrix;
+import profile.Profile;
+import util.IdDictionary;
+import util.reader.DatasetReader;
+
+public class CandidateSimilarityBuilder 
+{
+	private static final int GENOME_BLOCK_SIZE = 32; // the number of items per block of genome vectors (32 vectors of 1128 scores take 144KB)
+
+	private DatasetReader reader; // dataset reader
+	private SimilarityMetric metric; // similarity metric
+	private int maxNeighbours; // the maximum number of neighbours retained per item (0 if all neighbours are retained)
+	private int[] itemIds; // the item ids in ascending order - an item is referred to by its index in this array
+	private int[] itemIndex; // the index of each item in itemIds by dense index (-1 for items which are rated but not described)
+
+	private int[] counts; // the number of co-occurrences between the current item and each candidate item
+	private double[] dots; // the dot product between the ratings of the current item and each candidate item
+	private int[] likedLiked; // the number of users who liked both the current item and each candidate item
+	private int[] notLikedLiked; // the number of users who did not like the current item and liked each candidate item
+	private int[] candidates; // the indexes of the candidate items for the current item
+	private int ncandidates; // the number of candidate items for the current item
+
+	/**
+	 * constructor - creates a new CandidateSimilarityBuilder object
+	 * @param reader - dataset reader
+	 * @param metric - similarity metric
+	 */
+	public CandidateSimilarityBuilder(final DatasetReader reader, final SimilarityMetric metric)
+	{
+		this(reader, metric, 0);
+	}
+
+	/**
+	 * constructor - creates a new CandidateSimilarityBuilder object which retains only the top-N neighbours of each item
+	 * @param reader - dataset reader
+	 * @param metric - similarity metric
+	 * @param maxNeighbours - the maximum number of neighbours retained per item (0 to retain all neighbours)
+	 */
+	public CandidateSimilarityBuilder(final DatasetReader reader, final SimilarityMetric metric, final int maxNeighbours)
+	{
+		this.reader = reader;
+		this.metric = metric;
+		this.maxNeighbours = maxNeighbours;
+	}
+
+	/**
+	 * @returns a new SimilarityMap containing the similarities between all items
+	 */
+	public SimilarityMap build()
+	{
+		SimilarityMap simMap = new SimilarityMap(maxNeighbours, new TieOrder(reader));
+		boolean symmetric = SimilarityMap.isSymmetric(metric);
+
+		itemIds = SimilarityMap.getSortedIds(reader.getItems().keySet());
+		IdDictionary itemDictionary = reader.getItemDictionary();
+		itemIndex = new int[itemDictionary.getSize()];
+		Arrays.fill(itemIndex, -1);
+		for(int i = 0; i < itemIds.length; i++)
+			itemIndex[itemDictionary.getIndex(itemIds[i])] = i;
+
+		counts = new int[itemIds.length];
+		dots = new double[itemIds.length];
+		candidates = new int[itemIds.length];
+		if(metric instanceof IncConfidenceMetric)
+		{
+			likedLiked = new int[itemIds.length];
+			notLikedLiked = new int[itemIds.length];
+		}
+
+		if(metric instanceof RatingMetric || metric instanceof IncConfidenceMetric)
+			buildFromRatings(simMap, symmetric);
+		else if(metric instanceof GenreMetric && hasGenreMasks())
+			buildFromGenreMasks(simMap);
+		else if(metric instanceof GenreMetric)
+			buildFromGenres(simMap);
+		else // GenomeMetric - any other metric has been rejected by isSymmetric()
+			buildFromGenomeMatrix(simMap);
+
+		simMap.compact();
+		return simMap;
+	}
+
+	/**
+	 * computes the similarities between items rated by at least one common user, accumulating the
+	 * co-occurrence counts and dot products (or liked co-occurrence counts) in one pass over the users of each item
+	 * @param simMap - the map to which the similarities are added
+	 * @param symmetric - true if the similarities are symmetric
+	 */
+	private void buildFromRatings(final SimilarityMap simMap, final boolean symmetric)
+	{
+		// index the user -> item ratings by dense user index
+		IdDictionary itemDictionary = reader.getItemDictionary();
+		IdDictionary userDictionary = reader.getUserDictionary();
+		int nusers = userDictionary.getSize();
+		int[][] userItems = new int[nusers][];
+		double[][] userRatings = new double[nusers][];
+		for(int u = 0; u < nusers; u++)
+		{
+			Profile profile = reader.getUserProfileAt(u);
+			int[] items = new int[profile.getSize()];
+			double[] ratings = new double[profile.getSize()];
+			int n = 0;
+			for(int i = 0; i < profile.getSize(); i++)
+			{
+				int index = itemIndex[itemDictionary.getIndex(profile.getIdAt(i))];
+				if(index >= 0) // ignore ratings for unknown items
+				{
+					items[n] = index;
+					ratings[n++] = profile.getValueAt(i);
+				}
+			}
+			userItems[u] = Arrays.copyOf(items, n);
+			userRatings[u] = Arrays.copyOf(ratings, n);
+		}
+
+		for(int x = 0; x < itemIds.length; x++)
+		{
+			Profile Xrating = reader.getItemProfile(itemIds[x]);
+			if(Xrating == null)
+				continue;
+
+			// visit the users who rated item x in ascending order, so that the dot products are
+			// accumulated in the same order as by RatingMetric
+			ncandidates = 0;
+			int nliked = 0; // the number of users who liked item x
+			for(int i = 0; i < Xrating.getSize(); i++)
+			{
+				int u = userDictionary.getIndex(Xrating.getIdAt(i));
+				double rx = Xrating.getValueAt(i);
+				int[] items = userItems[u];
+				double[] ratings = userRatings[u];
+				if(symmetric)
+				{
+					for(int j = 0; j < items.length; j++)
+					{
+						int y = items[j];
+						if(y >= x)
+							break; // items are in ascending order - only pairs with a lower index are needed
+						if(counts[y]++ == 0)
+							candidates[ncandidates++] = y;
+						dots[y] += rx * ratings[j];
+					}
+				}
+				else
+				{
+					// the users who liked y are counted as they liked x or not
+					int[] table = IncConfidenceMetric.isLiked(rx) ? likedLiked : notLikedLiked;
+					if(IncConfidenceMetric.isLiked(rx))
+						nliked++;
+					for(int j = 0; j < items.length; j++)
+					{
+						int y = items[j];
+						if(y == x)
+							continue;
+						if(counts[y]++ == 0)
+							candidates[ncandidates++] = y;
+						if(IncConfidenceMetric.isLiked(ratings[j]))
+							table[y]++;
+					}
+				}
+			}
+
+			for(int c = 0; c < ncandidates; c++)
+			{
+				int y = candidates[c];
+				Integer id1 = itemIds[x], id2 = itemIds[y];
+				if(metric instanceof RatingMetric) {
+					// cosine from the accumulated dot product
+					double sim = RatingMetric.getSimilarity(dots[y], Xrating.getNorm(), reader.getItemProfile(id2).getNorm());
+					if(sim > 0) {
+						simMap.setSimilarity(id1, id2, sim);
+						simMap.setSimilarity(id2, id1, sim);
+					}
+				} else {
+					// increase in confidence from the accumulated co-occurrence counts
+					double sim = IncConfidenceMetric.getSimilarity(Xrating.getSize(), nliked, reader.getItemProfile(id2).getSize(),
+							counts[y], likedLiked[y], notLikedLiked[y]);
+					if(sim > 1) simMap.setSimilarity(id1, id2, sim);
+					likedLiked[y] = 0;
+					notLikedLiked[y] = 0;
+				}
+				counts[y] = 0;
+				dots[y] = 0;
+			}
+		}
+	}
+
+	/**
+	 * @returns true if the genre bitmask of every item represents its genres
+	 */
+	private boolean hasGenreMasks()
+	{
+		if(!reader.hasGenreMasks())
+			return false;
+
+		for(int id: itemIds)
+			if(!reader.getItem(id).hasGenreMask())
+				return false;
+		return true;
+	}
+
+	/**
+	 * computes the similarities between items which share at least one genre
+	 * @param simMap - the map to which the similarities are added
+	 */
+	private void buildFromGenres(final SimilarityMap simMap)
+	{
+		// index the items by genre - each list is in ascending order of item index
+		Map<String,List<Integer>> genreItems = new HashMap<String,List<Integer>>();
+		for(int i = 0; i < itemIds.length; i++)
+			for(String genre: reader.getItem(itemIds[i]).getGenres())
+			{
+				List<Integer> items = genreItems.get(genre);
+				if(items == null)
+				{
+					items = new ArrayList<Integer>();
+					genreItems.put(genre, items);
+				}
+				items.add(i);
+			}
+
+		Map<String,int[]> genreIndex = new HashMap<String,int[]>();
+		for(Map.Entry<String,List<Integer>> entry: genreItems.entrySet())
+		{
+			int[] items = new int[entry.getValue().size()];
+			for(int i = 0; i < items.length; i++)
+				items[i] = entry.getValue().get(i);
+			genreIndex.put(entry.getKey(), items);
+		}
+
+		for(int x = 0; x < itemIds.length; x++)
+		{
+			ncandidates = 0;
+			for(String genre: reader.getItem(itemIds[x]).getGenres())
+				for(int y: genreIndex.get(genre))
+				{
+					if(y >= x)
+						break;
+					if(counts[y]++ == 0)
+						candidates[ncandidates++] = y;
+				}
+
+			for(int c = 0; c < ncandidates; c++)
+			{
+				int y = candidates[c];
+				Integer id1 = itemIds[x], id2 = itemIds[y];
+				double sim = metric.getItemSimilarity(id1, id2);
+				if(sim > 0) {
+					simMap.setSimilarity(id1, id2, sim);
+					simMap.setSimilarity(id2, id1, sim);
+				}
+				counts[y] = 0;
+			}
+		}
+	}
+
+	/**
+	 * computes the similarities between items which share at least one genre, using the genre bitmasks -
+	 * many items share the same combination of genres, so the items are grouped by bitmask and the
+	 * similarity is computed once for each pair of groups, then set for each pair of items in the groups
+	 * @param simMap - the map to which the similarities are added
+	 */
+	private void buildFromGenreMasks(final SimilarityMap simMap)
+	{
+		// group the items by genre bitmask - each group is in ascending order of item id
+		Map<Long,List<Integer>> groupMap = new HashMap<Long,List<Integer>>();
+		List<Long> masks = new ArrayList<Long>();
+		for(int id: itemIds)
+		{
+			long mask = reader.getItem(id).getGenreMask();
+			List<Integer> group = groupMap.get(mask);
+			if(group == null)
+			{
+				group = new ArrayList<Integer>();
+				groupMap.put(mask, group);
+				masks.add(mask);
+			}
+			group.add(id);
+		}
+
+		for(int a = 0; a < masks.size(); a++)
+			for(int b = 0; b <= a; b++)
+			{
+				double sim = GenreMetric.getSimilarity(masks.get(a), masks.get(b));
+				if(sim <= 0)
+					continue;
+
+				List<Integer> groupA = groupMap.get(masks.get(a));
+				List<Integer> groupB = groupMap.get(masks.get(b));
+				for(int i = 0; i < groupA.size(); i++)
+					for(int j = 0; j < ((a == b) ? i : groupB.size()); j++)
+					{
+						Integer id1 = groupA.get(i), id2 = groupB.get(j);
+						simMap.setSimilarity(id1, id2, sim);
+						simMap.setSimilarity(id2, id1, sim);
+					}
+			}
+	}
+
+	/**
+	 * computes the similarities between all pairs of items over the dense genome vectors - the items are
+	 * divided into blocks, and all pairs between a block of rows and a block of columns are computed 
+	 * before moving on, so that the vectors of both blocks stay in the cache. Pairs involving an item
+	 * without a dense genome vector are computed by the metric.
+	 * @param simMap - the map to which the similarities are added
+	 */
+	private void buildFromGenomeMatrix(final SimilarityMap simMap)
+	{
+		GenomeMatrix matrix = reader.getItemGenomeMatrix();
+
+		// the row of each item's vector (-1 if the item has no dense vector)
+		int[] rows = new int[itemIds.length];
+		for(int x = 0; x < itemIds.length; x++)
+			rows[x] = matrix.getRow(itemIds[x]);
+
+		for(int bx = 0; bx < itemIds.length; bx += GENOME_BLOCK_SIZE)
+			for(int by = 0; by <= bx; by += GENOME_BLOCK_SIZE)
+				for(int x = bx; x < Math.min(bx + GENOME_BLOCK_SIZE, itemIds.length); x++)
+					for(int y = by; y < Math.min(by + GENOME_BLOCK_SIZE, x); y++)
+					{
+						Integer id1 = itemIds[x], id2 = itemIds[y];
+						double sim = (rows[x] >= 0 && rows[y] >= 0) ?
+								GenomeMetric.getSimilarity(matrix, rows[x], rows[y]) :
+								metric.getItemSimilarity(id1, id2);
+						if(sim > 0) {
+							simMap.setSimilarity(id1, id2, sim);
+							simMap.setSimilarity(id2, id1, sim);
+						}
+					}
+	}
+}
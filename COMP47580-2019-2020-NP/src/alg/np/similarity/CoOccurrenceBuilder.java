@@ -0,0 +1,200 @@
+/**
+ * This class builds the similarity map of IncConfidenceMetric from co-occurrence counts. The increase in
+ * confidence of (X, Y) depends only on the rating counts of X and Y and on three counts over the users who
+ * rated both: the number of such users, the number who liked both, and the number who did not like X and
+ * liked Y. Rather than counting these for each ordered pair by intersecting the item profiles, the counts
+ * for all pairs are accumulated in one pass over the users: each user's items are split into liked and not
+ * liked items (by IncConfidenceMetric.isLiked()), and for each item X rated by the user, the count of every
+ * item rated by the user is incremented, as is the liked-liked or notliked-liked count (as X is liked or
+ * not) of every item liked by the user.
+ *
+ * The counts are held in dense int tables with a row per item X, so no pairs are boxed or hashed. If the
+ * tables for all items would exceed a memory budget, the items are divided into blocks of rows, and one
+ * pass over the users is made per block. Each row gives the similarities of X to all other items, so the
+ * whole asymmetric map is built from the rows, and the map built is identical to that built by evaluating
+ * IncConfidenceMetric for each pair.
+ */
+
+package alg.np.similarity;
+
+import java.util.Arrays;
+
+import alg.np.similarity.metric.IncConfidenceMetric;
+import profile.Profile;
+import util.IdDictionary;
+import util.reader.DatasetReader;
+
+public class CoOccurrenceBuilder
+{
+	private static final long TABLE_BYTES = 1L << 26; // the memory budget for the count tables (64MB)
+
+	private DatasetReader reader; // dataset reader
+	private int maxNeighbours; // the maximum number of neighbours retained per item (0 if all neighbours are retained)
+
+	private int[] itemIds; // the item ids in ascending order - an item is referred to by its index in this array
+	private int[] userStart; // the start of the items of each user in userItems, followed by the number of ratings
+	private int[] userItems; // the items rated by each user, in ascending order of index
+	private int[] likedStart; // the start of the items liked by each user in likedItems, followed by the number of liked ratings
+	private int[] likedItems; // the items liked by each user, in ascending order of index
+	private boolean[] userLiked; // whether each rating in userItems is liked
+	private int[] ratingCounts; // the number of users who rated each item
+	private int[] likedCounts; // the number of users who liked each item
+
+	/**
+	 * constructor - creates a new CoOccurrenceBuilder object
+	 * @param reader - dataset reader
+	 */
+	public CoOccurrenceBuilder(final DatasetReader reader)
+	{
+		this(reader, 0);
+	}
+
+	/**
+	 * constructor - creates a new CoOccurrenceBuilder object which retains only the top-N neighbours of each item
+	 * @param reader - dataset reader
+	 * @param maxNeighbours - the maximum number of neighbours retained per item (0 to retain all neighbours)
+	 */
+	public CoOccurrenceBuilder(final DatasetReader reader, final int maxNeighbours)
+	{
+		if(maxNeighbours < 0)
+		{
+			System.out.println("Error - invalid number of neighbours");
+			System.exit(1);
+		}
+
+		this.reader = reader;
+		this.maxNeighbours = maxNeighbours;
+	}
+
+	/**
+	 * @returns a new SimilarityMap containing the similarities between all items
+	 */
+	public SimilarityMap build()
+	{
+		buildUserItems();
+
+		SimilarityMap simMap = new SimilarityMap(maxNeighbours, new TieOrder(reader));
+		int nitems = itemIds.length;
+		int nusers = userStart.length - 1;
+		int blockSize = (int)Math.max(1, Math.min(nitems, TABLE_BYTES / (12L * Math.max(1, nitems))));
+		int[] counts = new int[blockSize * nitems]; // the number of users who rated both X and Y
+		int[] likedLiked = new int[blockSize * nitems]; // the number of users who liked both X and Y
+		int[] notLikedLiked = new int[blockSize * nitems]; // the number of users who did not like X and liked Y
+
+		for(int lo = 0; lo < nitems; lo += blockSize)
+		{
+			int hi = Math.min(lo + blockSize, nitems);
+			Arrays.fill(counts, 0);
+			Arrays.fill(likedLiked, 0);
+			Arrays.fill(notLikedLiked, 0);
+
+			// one pass over the users, counting the co-occurrences of the items in the block with all items
+			for(int u = 0; u < nusers; u++)
+			{
+				int start = userStart[u], end = userStart[u + 1];
+				int likedStartU = likedStart[u], likedEndU = likedStart[u + 1];
+				for(int e = start; e < end; e++)
+				{
+					int x = userItems[e];
+					if(x < lo)
+						continue;
+					if(x >= hi)
+						break; // the items are in ascending order
+
+					int base = (x - lo) * nitems;
+					for(int f = start; f < end; f++)
+						counts[base + userItems[f]]++;
+					int[] table = userLiked[e] ? likedLiked : notLikedLiked;
+					for(int f = likedStartU; f < likedEndU; f++)
+						table[base + likedItems[f]]++;
+				}
+			}
+
+			// the similarities of each item in the block to all other items
+			for(int x = lo; x < hi; x++)
+			{
+				int base = (x - lo) * nitems;
+				Profile row = (maxNeighbours == 0) ? new Profile(itemIds[x]) : null;
+				NeighbourHeap heap = (maxNeighbours > 0) ? new NeighbourHeap(maxNeighbours) : null;
+				for(int y = 0; y < nitems; y++)
+				{
+					if(y == x || counts[base + y] == 0)
+						continue;
+
+					double sim = IncConfidenceMetric.getSimilarity(ratingCounts[x], likedCounts[x], ratingCounts[y],
+							counts[base + y], likedLiked[base + y], notLikedLiked[base + y]);
+					if(sim > 1)
+					{
+						if(row != null)
+							row.addValue(itemIds[y], sim);
+						else
+							heap.offer(itemIds[y], sim);
+					}
+				}
+
+				if(row != null && row.getSize() > 0)
+					simMap.setSimilarities(itemIds[x], row);
+				else if(heap != null && heap.getCount() > 0)
+					simMap.setNeighbours(itemIds[x], heap);
+			}
+		}
+
+		simMap.compact();
+		return simMap;
+	}
+
+	/**
+	 * indexes the items rated and liked by each user, and counts the users who rated and liked each item,
+	 * from the user profiles - ratings of items which are not described are ignored
+	 */
+	private void buildUserItems()
+	{
+		itemIds = SimilarityMap.getSortedIds(reader.getItems().keySet());
+		IdDictionary itemDictionary = reader.getItemDictionary();
+		int[] itemIndex = new int[itemDictionary.getSize()];
+		Arrays.fill(itemIndex, -1);
+		for(int i = 0; i < itemIds.length; i++)
+			itemIndex[itemDictionary.getIndex(itemIds[i])] = i;
+
+		// the users are visited by dense index
+		int nusers = reader.getUserDictionary().getSize();
+		int nratings = 0;
+		for(int u = 0; u < nusers; u++)
+			nratings += reader.getUserProfileAt(u).getSize();
+
+		userStart = new int[nusers + 1];
+		likedStart = new int[nusers + 1];
+		userItems = new int[nratings];
+		userLiked = new boolean[nratings];
+		int[] liked = new int[nratings];
+		ratingCounts = new int[itemIds.length];
+		likedCounts = new int[itemIds.length];
+		int n = 0, nliked = 0;
+		for(int u = 0; u < nusers; u++)
+		{
+			// the ids of the profile are in ascending order, so the items of the user are in ascending order of index
+			Profile profile = reader.getUserProfileAt(u);
+			for(int i = 0; i < profile.getSize(); i++)
+			{
+				int dense = itemDictionary.getIndex(profile.getIdAt(i));
+				int x = (dense >= 0) ? itemIndex[dense] : -1;
+				if(x >= 0)
+				{
+					boolean isLiked = IncConfidenceMetric.isLiked(profile.getValueAt(i));
+					userItems[n] = x;
+					userLiked[n++] = isLiked;
+					ratingCounts[x]++;
+					if(isLiked)
+					{
+						liked[nliked++] = x;
+						likedCounts[x]++;
+					}
+				}
+			}
+			userStart[u + 1] = n;
+			likedStart[u + 1] = nliked;
+		}
+
+		likedItems = Arrays.copyOf(liked, nliked);
+	}
+}
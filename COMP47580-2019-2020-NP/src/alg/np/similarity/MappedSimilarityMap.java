@@ -0,0 +1,586 @@
+/**
+ * MappedSimilarityMap is a read-only similarity map backed by a memory-mapped file, so that a map built
+ * offline can be served without loading it into the heap - processes which map the same file share
+ * a single page-cached copy. A map is written from a SimilarityMap using write().
+ *
+ * The file is stored in little-endian byte order in compressed sparse row (CSR) layout:
+ * - header: magic number, file version, maximum number of neighbours, number of rows, number of similarities, score format
+ * - item ids: the ID of each row, in ascending order
+ * - neighbour counts: the number of neighbours of each row, including any not stored
+ * - offsets: the index of the first similarity of each row, followed by the number of similarities
+ * - row scales: the largest similarity of each row (quantized score formats only)
+ * - neighbour ids: the neighbours of each row, in descending order of similarity (ties in the order of the map written)
+ * - scores: the similarity to each neighbour, in the score format
+ *
+ * The scores can be stored in any ScoreFormat. Quantized scores are scaled by the largest similarity of
+ * their row, and a similarity greater than 0 is stored as at least one step, so that it is not lost. The
+ * rows are ranked using the full precision similarities before the scores are stored, so the neighbours
+ * returned (and so the recommendations made) are the same whatever the format - only the similarities
+ * returned by getSimilarity() and getSimilarities() are approximate.
+ *
+ * The neighbour ids and scores are mapped in segments, so a map may be larger than a single mapping.
+ */
+
+package alg.np.similarity;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import alg.np.similarity.metric.GenomeMetric;
+import alg.np.similarity.metric.GenreMetric;
+import alg.np.similarity.metric.IncConfidenceMetric;
+import alg.np.similarity.metric.RatingMetric;
+import alg.np.similarity.metric.SimilarityMetric;
+import profile.Profile;
+import util.ScoreFormat;
+import util.reader.DatasetReader;
+
+public class MappedSimilarityMap implements SimilarityStore
+{
+	private static final int MAGIC = 0x4d53504e; // "NPSM"
+	private static final int VERSION = 2; // the file format version
+	private static final int HEADER_SIZE = 32; // the size of the header in bytes
+	private static final int VERSION_1_HEADER_SIZE = 24; // the size of the header of version 1 files (which store DOUBLE scores)
+	private static final int SEGMENT_SHIFT = 27; // each segment of the neighbour ids and scores holds 2^27 similarities
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	private int maxNeighbours; // the maximum number of neighbours stored per item (0 if all neighbours are stored)
+	private int nrows; // the number of rows
+	private IntBuffer itemIds; // the item id of each row
+	private IntBuffer counts; // the number of neighbours of each row
+	private LongBuffer offsets; // the index of the first similarity of each row
+	private ScoreFormat format; // the format of the scores
+	private DoubleBuffer scales; // the scale of the scores of each row (quantized score formats only)
+	private IntBuffer[] neighbourIds; // the segments of the neighbour ids
+	private ByteBuffer[] scores; // the segments of the scores
+
+	/**
+	 * builds a similarity map and writes it to a file
+	 * @param args - the metric (genre, genome, rating or incconfidence), the item file, genome scores file,
+	 * train file and test file, the similarity map file and optionally the maximum number of neighbours per item
+	 * and the score format (double, float, quantized16 or quantized8)
+	 */
+	public static void main(String[] args)
+	{
+		if(args.length < 6 || args.length > 8)
+		{
+			System.out.println("Usage: MappedSimilarityMap metric itemFile itemGenomeScoresFile trainFile testFile simMapFile [maxNeighbours [scoreFormat]]");
+			System.exit(1);
+		}
+
+		long start = System.currentTimeMillis();
+		DatasetReader reader = new DatasetReader(args[1], args[2], args[3], args[4]);
+		SimilarityMetric metric = null;
+		if(args[0].equals("genre"))
+			metric = new GenreMetric(reader);
+		else if(args[0].equals("genome"))
+			metric = new GenomeMetric(reader);
+		else if(args[0].equals("rating"))
+			metric = new RatingMetric(reader);
+		else if(args[0].equals("incconfidence"))
+			metric = new IncConfidenceMetric(reader);
+		else
+		{
+			System.out.println("Error - invalid similarity metric");
+			System.exit(1);
+		}
+
+		int maxNeighbours = (args.length >= 7) ? Integer.parseInt(args[6]) : 0;
+		ScoreFormat format = (args.length == 8) ? ScoreFormat.forName(args[7]) : ScoreFormat.DOUBLE;
+		SimilarityMap simMap = new CandidateSimilarityBuilder(reader, metric, maxNeighbours).build();
+		long built = System.currentTimeMillis();
+		write(simMap, args[5], format);
+		long written = System.currentTimeMillis();
+
+		System.out.println("Built similarity map in " + (built - start) + " ms, wrote it in " + (written - built) + " ms");
+	}
+
+	/**
+	 * writes a similarity map to a file, storing the scores as DOUBLE
+	 * @param simMap - the similarity map
+	 * @param filename - the path of the file
+	 */
+	public static void write(final SimilarityStore simMap, final String filename)
+	{
+		write(simMap, filename, ScoreFormat.DOUBLE);
+	}
+
+	/**
+	 * writes a similarity map to a file
+	 * @param simMap - the similarity map
+	 * @param filename - the path of the file
+	 * @param format - the format of the scores
+	 */
+	public static void write(final SimilarityStore simMap, final String filename, final ScoreFormat format)
+	{
+		try
+		{
+			RandomAccessFile file = new RandomAccessFile(new File(filename), "rw");
+			file.setLength(0);
+			FileChannel channel = file.getChannel();
+			ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+			int[] ids = SimilarityMap.getSortedIds(simMap.getIds());
+			long nnz = 0;
+			for(int id: ids)
+				nnz += simMap.getSimilarities(id).getSize();
+
+			buf.putInt(MAGIC);
+			buf.putInt(VERSION);
+			buf.putInt(simMap.getMaxNeighbours());
+			buf.putInt(ids.length);
+			buf.putLong(nnz);
+			buf.putInt(format.ordinal());
+			buf.putInt(0); // padding
+
+			for(int id: ids)
+				buf = putInt(channel, buf, id);
+			for(int id: ids)
+				buf = putInt(channel, buf, simMap.getNeighbourCount(id));
+			long offset = 0;
+			for(int id: ids)
+			{
+				buf = putLong(channel, buf, offset);
+				offset += simMap.getSimilarities(id).getSize();
+			}
+			buf = putLong(channel, buf, offset);
+			if(format.isQuantized())
+				for(int id: ids)
+					buf = putDouble(channel, buf, getScale(simMap.getSimilarities(id)));
+
+			// each row is ranked as by the map, and its neighbour ids and scores are written to their own columns
+			long position = HEADER_SIZE + 8L * ids.length + 8L * (ids.length + 1) + (format.isQuantized() ? 8L * ids.length : 0);
+			long scoresPosition = position + 4L * nnz;
+			flush(channel, buf);
+			ByteBuffer scoreBuf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+			for(int id: ids)
+			{
+				Profile profile = simMap.getSimilarities(id);
+				double scale = getScale(profile);
+				for(int neighbourId: getRankedRow(simMap, id, profile))
+				{
+					if(buf.remaining() < 4)
+						position += flush(channel, buf, position);
+					buf.putInt(neighbourId);
+					if(scoreBuf.remaining() < 8)
+						scoresPosition += flush(channel, scoreBuf, scoresPosition);
+					putScore(scoreBuf, format, profile.getValue(neighbourId, 0), scale);
+				}
+			}
+			flush(channel, buf, position);
+			flush(channel, scoreBuf, scoresPosition);
+
+			file.close();
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * constructor - creates a new MappedSimilarityMap object by memory-mapping a file written by write()
+	 * @param filename - the path of the file
+	 */
+	public MappedSimilarityMap(final String filename)
+	{
+		try
+		{
+			RandomAccessFile file = new RandomAccessFile(new File(filename), "r");
+			FileChannel channel = file.getChannel();
+
+			ByteBuffer header = map(channel, 0, Math.min(channel.size(), HEADER_SIZE));
+			int version = (header.remaining() >= VERSION_1_HEADER_SIZE && header.getInt() == MAGIC) ? header.getInt() : -1;
+			int headerSize = (version == 1) ? VERSION_1_HEADER_SIZE : HEADER_SIZE;
+			int formatIndex = (version == VERSION && header.limit() == HEADER_SIZE) ? header.getInt(24) : 0;
+			if((version != 1 && version != VERSION) || header.limit() < headerSize || formatIndex < 0 || formatIndex >= ScoreFormat.values().length)
+			{
+				System.out.println("Error reading from file \"" + filename + "\"");
+				System.exit(1);
+			}
+			maxNeighbours = header.getInt();
+			nrows = header.getInt();
+			long nnz = header.getLong();
+			format = ScoreFormat.values()[formatIndex]; // version 1 files store DOUBLE scores
+
+			long position = headerSize;
+			itemIds = map(channel, position, 4L * nrows).asIntBuffer();
+			position += 4L * nrows;
+			counts = map(channel, position, 4L * nrows).asIntBuffer();
+			position += 4L * nrows;
+			offsets = map(channel, position, 8L * (nrows + 1)).asLongBuffer();
+			position += 8L * (nrows + 1);
+			if(format.isQuantized())
+			{
+				scales = map(channel, position, 8L * nrows).asDoubleBuffer();
+				position += 8L * nrows;
+			}
+
+			int nsegments = (int)((nnz + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+			neighbourIds = new IntBuffer[nsegments];
+			scores = new ByteBuffer[nsegments];
+			long scoresPosition = position + 4L * nnz;
+			int bytes = format.getBytes();
+			for(int s = 0; s < nsegments; s++)
+			{
+				long first = (long)s << SEGMENT_SHIFT;
+				long size = Math.min(nnz - first, 1L << SEGMENT_SHIFT);
+				neighbourIds[s] = map(channel, position + 4L * first, 4L * size).asIntBuffer();
+				scores[s] = map(channel, scoresPosition + bytes * first, bytes * size);
+			}
+
+			file.close(); // the mappings remain valid once the file is closed
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * @returns the numeric IDs of the items which have similarities (a read-only view, iterated in ascending order)
+	 */
+	public Set<Integer> getIds()
+	{
+		return new AbstractSet<Integer>() {
+			@Override
+			public Iterator<Integer> iterator()
+			{
+				return new Iterator<Integer>() {
+					private int next = 0;
+
+					public boolean hasNext()
+					{
+						return next < nrows;
+					}
+
+					public Integer next()
+					{
+						if(next >= nrows)
+							throw new NoSuchElementException();
+						return itemIds.get(next++);
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(final Object o)
+			{
+				return (o instanceof Integer) && getRow(((Integer)o).intValue()) >= 0;
+			}
+
+			@Override
+			public int size()
+			{
+				return nrows;
+			}
+		};
+	}
+
+	/**
+	 * @returns a copy of the similarity profile of an item (or null if the item has no similarities)
+	 * @param the numeric ID of the item
+	 */
+	public Profile getSimilarities(final Integer id)
+	{
+		int row = getRow(id.intValue());
+		if(row < 0)
+			return null;
+
+		Profile profile = new Profile(id);
+		for(long e = offsets.get(row); e < offsets.get(row + 1); e++)
+			profile.addValue(getNeighbourId(e), getScore(row, e));
+		profile.compact();
+		return profile;
+	}
+
+	/**
+	 * @returns the similarity between two items (0 if not stored) - the neighbours are ranked by
+	 * similarity, so the row of the first item is searched linearly
+	 * @param the numeric ID of the first item
+	 * @param the numeric ID of the second item
+	 */
+	public double getSimilarity(final Integer id1, final Integer id2)
+	{
+		int row = getRow(id1.intValue());
+		if(row < 0)
+			return 0;
+
+		for(long e = offsets.get(row); e < offsets.get(row + 1); e++)
+			if(getNeighbourId(e) == id2.intValue())
+				return getScore(row, e);
+		return 0;
+	}
+
+	/**
+	 * @returns the neighbours of an item in descending order of similarity (ties in the order of the map
+	 * written), or null if the map is not bounded or the item has no neighbours
+	 * @param the numeric ID of the item
+	 */
+	public int[] getNeighbours(final Integer id)
+	{
+		if(maxNeighbours == 0)
+			return null;
+
+		int row = getRow(id.intValue());
+		return (row >= 0) ? getRankedIds(row, Integer.MAX_VALUE, false) : null;
+	}
+
+	/**
+	 * @returns the top-k neighbours of an item (for a map which is not bounded, those with a similarity
+	 * greater than 0) in descending order of similarity (ties in the order of the map written) - the neighbours
+	 * are read from the start of the ranked row
+	 * @param the numeric ID of the item
+	 * @param k - the maximum number of neighbours returned
+	 */
+	public int[] getTopNeighbours(final Integer id, final int k)
+	{
+		int row = getRow(id.intValue());
+		if(row < 0 || k <= 0)
+			return new int[0];
+
+		return getRankedIds(row, k, maxNeighbours == 0);
+	}
+
+	/**
+	 * @returns the number of neighbours of an item - for a bounded map, this includes the neighbours not stored
+	 * @param the numeric ID of the item
+	 */
+	public int getNeighbourCount(final Integer id)
+	{
+		int row = getRow(id.intValue());
+		return (row >= 0) ? counts.get(row) : 0;
+	}
+
+	/**
+	 * @returns the maximum number of neighbours stored per item (0 if all neighbours are stored)
+	 */
+	public int getMaxNeighbours()
+	{
+		return maxNeighbours;
+	}
+
+	/**
+	 * @returns the format in which the scores are stored
+	 */
+	public ScoreFormat getFormat()
+	{
+		return format;
+	}
+
+	/**
+	 * @returns the row of an item (or a negative number if the item has no row)
+	 * @param id - the numeric ID of the item
+	 */
+	private int getRow(final int id)
+	{
+		int lo = 0, hi = nrows - 1;
+		while(lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			int midId = itemIds.get(mid);
+			if(midId < id)
+				lo = mid + 1;
+			else if(midId > id)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -(lo + 1);
+	}
+
+	/**
+	 * @returns the first neighbours of a row
+	 * @param row - the row
+	 * @param k - the maximum number of neighbours returned
+	 * @param positive - true if only the neighbours with a similarity greater than 0 are returned
+	 */
+	private int[] getRankedIds(final int row, final int k, final boolean positive)
+	{
+		long start = offsets.get(row);
+		int n = (int)Math.min(k, offsets.get(row + 1) - start);
+		int[] ids = new int[n];
+		for(int i = 0; i < n; i++)
+		{
+			if(positive && getScore(row, start + i) <= 0)
+				return Arrays.copyOf(ids, i); // the remaining neighbours have lower similarities
+			ids[i] = getNeighbourId(start + i);
+		}
+		return ids;
+	}
+
+	/**
+	 * @returns the neighbour id of a similarity
+	 * @param e - the index of the similarity
+	 */
+	private int getNeighbourId(final long e)
+	{
+		return neighbourIds[(int)(e >>> SEGMENT_SHIFT)].get((int)(e & SEGMENT_MASK));
+	}
+
+	/**
+	 * @returns the score of a similarity
+	 * @param row - the row of the similarity
+	 * @param e - the index of the similarity
+	 */
+	private double getScore(final int row, final long e)
+	{
+		ByteBuffer segment = scores[(int)(e >>> SEGMENT_SHIFT)];
+		int index = (int)(e & SEGMENT_MASK);
+		switch(format)
+		{
+			case FLOAT:
+				return segment.getFloat(4 * index);
+			case QUANTIZED16:
+				return format.dequantize(segment.getChar(2 * index), scales.get(row));
+			case QUANTIZED8:
+				return format.dequantize(segment.get(index) & 0xff, scales.get(row));
+			default:
+				return segment.getDouble(8 * index);
+		}
+	}
+
+	/**
+	 * @returns the neighbours of a row in the order in which they are written - the neighbours ranked by the
+	 * map (so that tied neighbours are in the order of the map), followed by any neighbours with a similarity
+	 * of 0 or less in descending order of similarity (ties in ascending order of ID)
+	 * @param simMap - the similarity map
+	 * @param id - the numeric ID of the item
+	 * @param profile - the similarities of the item
+	 */
+	private static int[] getRankedRow(final SimilarityStore simMap, final Integer id, final Profile profile)
+	{
+		int[] ranked = simMap.getNeighbours(id);
+		if(ranked == null)
+			ranked = simMap.getTopNeighbours(id, Integer.MAX_VALUE);
+		if(ranked.length == profile.getSize())
+			return ranked;
+
+		NeighbourHeap heap = new NeighbourHeap(profile.getSize() - ranked.length);
+		for(int i = 0; i < profile.getSize(); i++)
+			if(profile.getValueAt(i) <= 0)
+				heap.offer(profile.getIdAt(i), profile.getValueAt(i));
+		int[] rest = heap.getRankedIds(TieOrder.ASCENDING_ID, id, profile.getSize());
+		int[] row = Arrays.copyOf(ranked, ranked.length + rest.length);
+		System.arraycopy(rest, 0, row, ranked.length, rest.length);
+		return row;
+	}
+
+	/**
+	 * @returns the scale of the quantized scores of a row - the largest similarity
+	 * @param profile - the similarities of the row
+	 */
+	private static double getScale(final Profile profile)
+	{
+		double scale = 0;
+		for(int i = 0; i < profile.getSize(); i++)
+			scale = Math.max(scale, profile.getValueAt(i));
+		return scale;
+	}
+
+	/**
+	 * writes a score to a buffer in a format - a quantized similarity greater than 0 is stored as at least one step
+	 * @param buf - the buffer
+	 * @param format - the format of the score
+	 * @param score - the similarity
+	 * @param scale - the scale of the quantized scores of the row
+	 */
+	private static void putScore(final ByteBuffer buf, final ScoreFormat format, final double score, final double scale)
+	{
+		switch(format)
+		{
+			case FLOAT:
+				buf.putFloat((float)score);
+				break;
+			case QUANTIZED16:
+				buf.putChar((char)((score > 0) ? Math.max(1, format.quantize(score, scale)) : 0));
+				break;
+			case QUANTIZED8:
+				buf.put((byte)((score > 0) ? Math.max(1, format.quantize(score, scale)) : 0));
+				break;
+			default:
+				buf.putDouble(score);
+		}
+	}
+
+	/**
+	 * @returns a read-only little-endian mapping of part of a file
+	 */
+	private static ByteBuffer map(final FileChannel channel, final long position, final long size) throws IOException
+	{
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * writes an int to a buffer, first appending the buffer to the file if it is full
+	 * @returns the buffer
+	 */
+	private static ByteBuffer putInt(final FileChannel channel, final ByteBuffer buf, final int value) throws IOException
+	{
+		if(buf.remaining() < 4)
+			flush(channel, buf);
+		return buf.putInt(value);
+	}
+
+	/**
+	 * writes a long to a buffer, first appending the buffer to the file if it is full
+	 * @returns the buffer
+	 */
+	private static ByteBuffer putLong(final FileChannel channel, final ByteBuffer buf, final long value) throws IOException
+	{
+		if(buf.remaining() < 8)
+			flush(channel, buf);
+		return buf.putLong(value);
+	}
+
+	/**
+	 * writes a double to a buffer, first appending the buffer to the file if it is full
+	 * @returns the buffer
+	 */
+	private static ByteBuffer putDouble(final FileChannel channel, final ByteBuffer buf, final double value) throws IOException
+	{
+		if(buf.remaining() < 8)
+			flush(channel, buf);
+		return buf.putDouble(value);
+	}
+
+	/**
+	 * appends the contents of a buffer to the file and clears the buffer
+	 */
+	private static void flush(final FileChannel channel, final ByteBuffer buf) throws IOException
+	{
+		buf.flip();
+		while(buf.hasRemaining())
+			channel.write(buf);
+		buf.clear();
+	}
+
+	/**
+	 * writes the contents of a buffer to the file at a position and clears the buffer
+	 * @returns the number of bytes written
+	 */
+	private static int flush(final FileChannel channel, final ByteBuffer buf, final long position) throws IOException
+	{
+		buf.flip();
+		int n = buf.remaining();
+		long p = position;
+		while(buf.hasRemaining())
+			p += channel.write(buf, p);
+		buf.clear();
+		return n;
+	}
+}
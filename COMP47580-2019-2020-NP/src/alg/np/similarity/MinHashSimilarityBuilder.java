@@ -0,0 +1,316 @@
+/**
+ * This class builds an approximate SimilarityMap for GenomeMetric using locality-sensitive hashing, so that
+ * the weighted Jaccard similarity is evaluated only for those item pairs likely to be similar rather than
+ * for all pairs. Each item's genome scores are sketched once using consistent weighted sampling (Ioffe's
+ * ICWS), under which two items produce the same sample with probability equal to their weighted Jaccard
+ * similarity. The samples are divided into bands of rows, and items whose samples agree over all rows of
+ * any band are candidate pairs. A pair with similarity J is a candidate with probability 1 - (1 - J^r)^b
+ * for b bands of r rows: more bands find more pairs at the cost of more candidates, and more rows per band
+ * reject more dissimilar pairs. Candidate pairs are scored using GenomeMetric, so the similarities stored
+ * are exact - only pairs which are not candidates are missed.
+ */
+
+package alg.np.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import alg.np.similarity.metric.GenomeMetric;
+import alg.np.similarity.metric.SimilarityMetric;
+import profile.Profile;
+import util.reader.DatasetReader;
+
+public class MinHashSimilarityBuilder
+{
+	private static final long SEED = 47580; // the seed of the random variables used to sketch the items
+
+	private DatasetReader reader; // dataset reader
+	private SimilarityMetric metric; // similarity metric
+	private int nbands; // the number of bands
+	private int nrows; // the number of rows (samples) per band
+	private int maxNeighbours; // the maximum number of neighbours retained per item (0 if all neighbours are retained)
+	private long ncandidates; // the number of candidate pairs scored by the last build
+
+	/**
+	 * compares the approximate similarity maps built using different numbers of bands and rows with the
+	 * exact similarity map, reporting the build time, the number of pairs scored and the recall and
+	 * precision of the top-k neighbours of each item
+	 * @param args - the item file, genome scores file, train file and test file, the number of neighbours k,
+	 * and one or more band and row counts given as bands:rows (e.g. 16:2 32:3)
+	 */
+	public static void main(String[] args)
+	{
+		if(args.length < 6)
+		{
+			System.out.println("Usage: MinHashSimilarityBuilder itemFile itemGenomeScoresFile trainFile testFile k bands:rows [bands:rows ...]");
+			System.exit(1);
+		}
+
+		DatasetReader reader = new DatasetReader(args[0], args[1], args[2], args[3]);
+		int k = Integer.parseInt(args[4]);
+		int nitems = reader.getItems().size();
+		long npairs = (long)nitems * (nitems - 1) / 2;
+
+		long start = System.currentTimeMillis();
+		SimilarityMap exact = new CandidateSimilarityBuilder(reader, new GenomeMetric(reader)).build();
+		long exactTime = System.currentTimeMillis() - start;
+
+		System.out.println("bands,rows,pairs scored,fraction of pairs,build ms,speedup,recall@" + k + ",precision@" + k);
+		System.out.println("exact,," + npairs + ",1.0," + exactTime + ",1.0,1.0,1.0");
+		for(int i = 5; i < args.length; i++)
+		{
+			String[] config = args[i].split(":");
+			MinHashSimilarityBuilder builder = new MinHashSimilarityBuilder(reader, Integer.parseInt(config[0]), Integer.parseInt(config[1]));
+
+			start = System.currentTimeMillis();
+			SimilarityMap approx = builder.build();
+			long approxTime = System.currentTimeMillis() - start;
+
+			// compare the top-k neighbours of each item
+			long nexact = 0, napprox = 0, ncommon = 0;
+			for(Integer id: reader.getItems().keySet())
+			{
+				int[] exactIds = exact.getTopNeighbours(id, k);
+				int[] approxIds = approx.getTopNeighbours(id, k);
+				Set<Integer> exactSet = new HashSet<Integer>();
+				for(int neighbour: exactIds)
+					exactSet.add(neighbour);
+				for(int neighbour: approxIds)
+					if(exactSet.contains(neighbour))
+						ncommon++;
+				nexact += exactIds.length;
+				napprox += approxIds.length;
+			}
+
+			System.out.println(config[0] + "," + config[1] + "," + builder.getCandidateCount() + "," +
+					(npairs > 0 ? builder.getCandidateCount() * 1.0 / npairs : 0) + "," + approxTime + "," +
+					(approxTime > 0 ? exactTime * 1.0 / approxTime : 0) + "," +
+					(nexact > 0 ? ncommon * 1.0 / nexact : 1) + "," +
+					(napprox > 0 ? ncommon * 1.0 / napprox : 1));
+		}
+	}
+
+	/**
+	 * constructor - creates a new MinHashSimilarityBuilder object
+	 * @param reader - dataset reader
+	 * @param nbands - the number of bands
+	 * @param nrows - the number of rows (samples) per band
+	 */
+	public MinHashSimilarityBuilder(final DatasetReader reader, final int nbands, final int nrows)
+	{
+		this(reader, nbands, nrows, 0);
+	}
+
+	/**
+	 * constructor - creates a new MinHashSimilarityBuilder object which retains only the top-N neighbours of each item
+	 * @param reader - dataset reader
+	 * @param nbands - the number of bands
+	 * @param nrows - the number of rows (samples) per band
+	 * @param maxNeighbours - the maximum number of neighbours retained per item (0 to retain all neighbours)
+	 */
+	public MinHashSimilarityBuilder(final DatasetReader reader, final int nbands, final int nrows, final int maxNeighbours)
+	{
+		if(nbands < 1 || nrows < 1)
+		{
+			System.out.println("Error - invalid number of bands or rows");
+			System.exit(1);
+		}
+
+		this.reader = reader;
+		this.metric = new GenomeMetric(reader);
+		this.nbands = nbands;
+		this.nrows = nrows;
+		this.maxNeighbours = maxNeighbours;
+	}
+
+	/**
+	 * @returns the number of candidate pairs scored by the last build
+	 */
+	public long getCandidateCount()
+	{
+		return ncandidates;
+	}
+
+	/**
+	 * @returns a new SimilarityMap containing the similarities between the candidate pairs of items
+	 */
+	public SimilarityMap build()
+	{
+		SimilarityMap simMap = new SimilarityMap(maxNeighbours, new TieOrder(reader));
+		int[] itemIds = SimilarityMap.getSortedIds(reader.getItems().keySet());
+		long[][] sketches = sketch(itemIds);
+
+		// index the items by the signature of each band - each bucket is in ascending order of item index
+		List<Map<Long,List<Integer>>> bands = new ArrayList<Map<Long,List<Integer>>>();
+		long[][] signatures = new long[itemIds.length][];
+		for(int x = 0; x < itemIds.length; x++)
+			if(sketches[x] != null)
+				signatures[x] = getBandSignatures(sketches[x]);
+		for(int b = 0; b < nbands; b++)
+		{
+			Map<Long,List<Integer>> buckets = new HashMap<Long,List<Integer>>();
+			for(int x = 0; x < itemIds.length; x++)
+				if(signatures[x] != null)
+				{
+					List<Integer> bucket = buckets.get(signatures[x][b]);
+					if(bucket == null)
+					{
+						bucket = new ArrayList<Integer>();
+						buckets.put(signatures[x][b], bucket);
+					}
+					bucket.add(x);
+				}
+			bands.add(buckets);
+		}
+
+		// score each candidate pair once - the pairs of each item are collected over all of its buckets
+		boolean[] seen = new boolean[itemIds.length];
+		int[] candidates = new int[itemIds.length];
+		ncandidates = 0;
+		for(int x = 0; x < itemIds.length; x++)
+		{
+			if(signatures[x] == null)
+				continue;
+
+			int n = 0;
+			for(int b = 0; b < nbands; b++)
+				for(int y: bands.get(b).get(signatures[x][b]))
+				{
+					if(y >= x)
+						break;
+					if(!seen[y])
+					{
+						seen[y] = true;
+						candidates[n++] = y;
+					}
+				}
+
+			for(int c = 0; c < n; c++)
+			{
+				int y = candidates[c];
+				Integer id1 = itemIds[x], id2 = itemIds[y];
+				double sim = metric.getItemSimilarity(id1, id2);
+				if(sim > 0) {
+					simMap.setSimilarity(id1, id2, sim);
+					simMap.setSimilarity(id2, id1, sim);
+				}
+				seen[y] = false;
+			}
+			ncandidates += n;
+		}
+
+		simMap.compact();
+		return simMap;
+	}
+
+	/**
+	 * sketches the genome scores of each item using Ioffe's improved consistent weighted sampling -
+	 * for each sample and tag k with score S_k, t_k = floor(ln(S_k) / r_k + b_k) and
+	 * ln(a_k) = ln(c_k) - r_k (t_k - b_k + 1), where r_k, c_k ~ Gamma(2, 1) and b_k ~ Uniform(0, 1);
+	 * the sample is the pair (k, t_k) minimising a_k
+	 * @param itemIds - the item ids
+	 * @returns the samples of each item (null for an item without genome scores), each encoded as (k << 32 | t_k)
+	 */
+	private long[][] sketch(final int[] itemIds)
+	{
+		// index the tags in ascending order of tag ID
+		Set<Integer> tagSet = new HashSet<Integer>();
+		for(int id: itemIds)
+		{
+			Profile genome = reader.getItem(id).getGenomeScores();
+			if(genome != null)
+				tagSet.addAll(genome.getIds());
+		}
+		int[] tagIds = SimilarityMap.getSortedIds(tagSet);
+		Map<Integer,Integer> tagIndex = new HashMap<Integer,Integer>();
+		for(int k = 0; k < tagIds.length; k++)
+			tagIndex.put(tagIds[k], k);
+
+		// the random variables of each sample and tag are shared by all items
+		int nsamples = nbands * nrows;
+		double[][] invR = new double[nsamples][tagIds.length];
+		double[][] r = new double[nsamples][tagIds.length];
+		double[][] lnC = new double[nsamples][tagIds.length];
+		double[][] beta = new double[nsamples][tagIds.length];
+		Random random = new Random(SEED);
+		for(int j = 0; j < nsamples; j++)
+			for(int k = 0; k < tagIds.length; k++)
+			{
+				r[j][k] = -Math.log(random.nextDouble() * random.nextDouble() + Double.MIN_VALUE);
+				invR[j][k] = 1 / r[j][k];
+				lnC[j][k] = Math.log(-Math.log(random.nextDouble() * random.nextDouble() + Double.MIN_VALUE));
+				beta[j][k] = random.nextDouble();
+			}
+
+		long[][] sketches = new long[itemIds.length][];
+		int[] tags = new int[tagIds.length];
+		double[] lnS = new double[tagIds.length];
+		for(int x = 0; x < itemIds.length; x++)
+		{
+			Profile genome = reader.getItem(itemIds[x]).getGenomeScores();
+			if(genome == null)
+				continue;
+
+			// the tags with a positive score
+			int ntags = 0;
+			for(int i = 0; i < genome.getSize(); i++)
+				if(genome.getValueAt(i) > 0)
+				{
+					tags[ntags] = tagIndex.get(genome.getIdAt(i));
+					lnS[ntags++] = Math.log(genome.getValueAt(i));
+				}
+			if(ntags == 0)
+				continue;
+
+			long[] samples = new long[nsamples];
+			for(int j = 0; j < nsamples; j++)
+			{
+				double minLnA = Double.POSITIVE_INFINITY;
+				int minK = 0;
+				double minT = 0;
+				for(int i = 0; i < ntags; i++)
+				{
+					int k = tags[i];
+					double t = Math.floor(lnS[i] * invR[j][k] + beta[j][k]);
+					double lnA = lnC[j][k] - r[j][k] * (t - beta[j][k] + 1);
+					if(lnA < minLnA)
+					{
+						minLnA = lnA;
+						minK = k;
+						minT = t;
+					}
+				}
+				samples[j] = ((long)minK << 32) | ((long)minT & 0xffffffffL);
+			}
+			sketches[x] = samples;
+		}
+
+		return sketches;
+	}
+
+	/**
+	 * @returns the signature of each band of a sketch - a hash of the samples in the band's rows
+	 * @param samples - the samples of an item
+	 */
+	private long[] getBandSignatures(final long[] samples)
+	{
+		long[] signatures = new long[nbands];
+		for(int b = 0; b < nbands; b++)
+		{
+			long h = b;
+			for(int j = b * nrows; j < (b + 1) * nrows; j++)
+			{
+				h = (h ^ samples[j]) * 0x9e3779b97f4a7c15L;
+				h ^= (h >>> 29);
+			}
+			signatures[b] = h;
+		}
+		return signatures;
+	}
+}
@@ -0,0 +1,191 @@
+/**
+ * A bounded min-heap which retains the top-N neighbours of an item, ranked in descending order of
+ * similarity and then in the order given by a TieOrder. The order of tied neighbours depends on the
+ * number of neighbours of the item, which is not known until all neighbours have been offered, so the
+ * neighbours tied with the worst retained neighbour are set aside rather than discarded, and the
+ * neighbours retained are chosen from them when the heap is ranked.
+ */
+
+package alg.np.similarity;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import profile.Profile;
+
+class NeighbourHeap
+{
+	private int[] ids; // the neighbour ids - the worst retained neighbour is at the root
+	private double[] sims; // the corresponding similarities
+	private int size; // the number of neighbours retained
+	private int count; // the number of neighbours offered to the heap
+	private int[] tiedIds; // the neighbours set aside whose similarity equals that of the worst retained neighbour
+	private int ntied; // the number of neighbours set aside
+
+	/**
+	 * constructor - creates a new NeighbourHeap object
+	 * @param capacity - the maximum number of neighbours retained
+	 */
+	NeighbourHeap(final int capacity)
+	{
+		ids = new int[capacity];
+		sims = new double[capacity];
+		size = 0;
+		count = 0;
+		tiedIds = null;
+		ntied = 0;
+	}
+
+	/**
+	 * offers a neighbour to the heap - it is retained if it is among the top-N neighbours offered so far,
+	 * and set aside if it is tied with the worst retained neighbour
+	 * @param id - the neighbour id
+	 * @param sim - the similarity to the neighbour
+	 */
+	void offer(final int id, final double sim)
+	{
+		count++;
+
+		if(size < ids.length)
+		{
+			// add at the bottom and sift up
+			int i = size++;
+			while(i > 0)
+			{
+				int parent = (i - 1) >>> 1;
+				if(!(sim < sims[parent]))
+					break;
+				ids[i] = ids[parent];
+				sims[i] = sims[parent];
+				i = parent;
+			}
+			ids[i] = id;
+			sims[i] = sim;
+		}
+		else if(size > 0 && sim > sims[0])
+		{
+			// replace the root and sift down
+			int worstId = ids[0];
+			double worstSim = sims[0];
+			int i = 0;
+			while(true)
+			{
+				int child = 2 * i + 1;
+				if(child >= size)
+					break;
+				if(child + 1 < size && sims[child + 1] < sims[child])
+					child++;
+				if(!(sims[child] < sim))
+					break;
+				ids[i] = ids[child];
+				sims[i] = sims[child];
+				i = child;
+			}
+			ids[i] = id;
+			sims[i] = sim;
+
+			// the replaced neighbour is set aside if it is still tied with the worst retained neighbour
+			if(sims[0] == worstSim)
+				setAside(worstId);
+			else
+				ntied = 0;
+		}
+		else if(size > 0 && sim == sims[0])
+			setAside(id);
+	}
+
+	/**
+	 * @returns the number of neighbours offered to the heap
+	 */
+	int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * @returns the retained neighbour ids in descending order of similarity (ties in the given order)
+	 * @param order - the order of tied neighbours
+	 * @param id - the numeric ID of the item
+	 * @param nneighbours - the number of neighbours of the item
+	 */
+	int[] getRankedIds(final TieOrder order, final int id, final int nneighbours)
+	{
+		int[] ranked = rank(order, id, nneighbours);
+		for(int i = 0; i < ranked.length; i++)
+			ranked[i] = getId(ranked[i]);
+		return ranked;
+	}
+
+	/**
+	 * @returns a similarity profile containing the retained neighbours
+	 * @param order - the order of tied neighbours
+	 * @param id - the numeric ID of the item
+	 * @param nneighbours - the number of neighbours of the item
+	 */
+	Profile toProfile(final TieOrder order, final Integer id, final int nneighbours)
+	{
+		Profile profile = new Profile(id);
+		for(int entry: rank(order, id, nneighbours))
+			profile.addValue(getId(entry), getSimilarity(entry));
+		profile.compact();
+		return profile;
+	}
+
+	/**
+	 * @returns the entries of the retained neighbours in ranked order - the entries of the heap are followed
+	 * by those of the neighbours set aside
+	 * @param order - the order of tied neighbours
+	 * @param id - the numeric ID of the item
+	 * @param nneighbours - the number of neighbours of the item
+	 */
+	private int[] rank(final TieOrder order, final int id, final int nneighbours)
+	{
+		Integer[] entries = new Integer[size + ntied];
+		for(int i = 0; i < entries.length; i++)
+			entries[i] = i;
+
+		Arrays.sort(entries, new Comparator<Integer>() {
+			public int compare(final Integer entry1, final Integer entry2)
+			{
+				int cmp = Double.compare(getSimilarity(entry2), getSimilarity(entry1));
+				return (cmp != 0) ? cmp : order.compare(id, nneighbours, getId(entry1), getId(entry2));
+			}
+		});
+
+		int[] ranked = new int[Math.min(ids.length, entries.length)];
+		for(int i = 0; i < ranked.length; i++)
+			ranked[i] = entries[i];
+		return ranked;
+	}
+
+	/**
+	 * @returns the neighbour id of an entry
+	 * @param entry - the entry
+	 */
+	private int getId(final int entry)
+	{
+		return (entry < size) ? ids[entry] : tiedIds[entry - size];
+	}
+
+	/**
+	 * @returns the similarity of an entry - the neighbours set aside are tied with the worst retained neighbour
+	 * @param entry - the entry
+	 */
+	private double getSimilarity(final int entry)
+	{
+		return (entry < size) ? sims[entry] : sims[0];
+	}
+
+	/**
+	 * sets a neighbour aside
+	 * @param id - the neighbour id
+	 */
+	private void setAside(final int id)
+	{
+		if(tiedIds == null)
+			tiedIds = new int[4];
+		else if(ntied == tiedIds.length)
+			tiedIds = Arrays.copyOf(tiedIds, 2 * ntied);
+		tiedIds[ntied++] = id;
+	}
+}
@@ -0,0 +1,326 @@
+/**
+ * This class builds the similarity map of RatingMetric as a sparse matrix product. The Cosine between
+ * the ratings of items x and y is (R^T R)[x][y] / (|R[.][x]| |R[.][y]|), where R is the user-item rating
+ * matrix, so the map is computed from R^T R rather than one pair at a time. R is built from the user
+ * profiles both by item (the users who rated each item, in ascending order of user id) and by user (the
+ * items rated by each user). Each row x of the product is then computed Gustavson-style: for each user who
+ * rated x, the products of the user's rating of x and of each other item rated by the user are added to a
+ * dense accumulator indexed by item, and the items touched are collected as the neighbours of x. Rows are
+ * independent, so they may be computed in parallel, and each row is added to the map as a whole, keeping
+ * only the similarities above a minimum and (optionally) the top-N neighbours.
+ *
+ * The dot products are accumulated over the users in ascending order of id, as by RatingMetric, so the
+ * map built is identical to that built by evaluating RatingMetric for each pair.
+ */
+
+package alg.np.similarity;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import profile.Profile;
+import util.IdDictionary;
+import util.reader.DatasetReader;
+
+public class RatingProductBuilder
+{
+	private DatasetReader reader; // dataset reader
+	private int nThreads; // the number of worker threads
+	private int maxNeighbours; // the maximum number of neighbours retained per item (0 if all neighbours are retained)
+	private double minSimilarity; // the similarities retained are those greater than this value (and 0)
+
+	private int[] itemIds; // the item ids in ascending order - an item is referred to by its index in this array
+	private int[] itemStart; // the start of the ratings of each item in itemUsers and itemRatings, followed by the number of ratings
+	private int[] itemUsers; // the users who rated each item, in ascending order of user id
+	private double[] itemRatings; // the corresponding ratings
+	private int[] userStart; // the start of the ratings of each user in userItems and userRatings, followed by the number of ratings
+	private int[] userItems; // the items rated by each user
+	private double[] userRatings; // the corresponding ratings
+	private double[] norms; // the norm of the ratings of each item
+
+	private Profile[] rows; // the similarities of each item (unbounded maps only)
+	private NeighbourHeap[] heaps; // the top-N neighbours of each item (bounded maps only)
+	private ThreadLocal<Accumulator> accumulators; // the accumulator of each worker thread, reused for every block of rows
+
+	/**
+	 * constructor - creates a new RatingProductBuilder object which computes the rows sequentially
+	 * @param reader - dataset reader
+	 */
+	public RatingProductBuilder(final DatasetReader reader)
+	{
+		this(reader, 1);
+	}
+
+	/**
+	 * constructor - creates a new RatingProductBuilder object
+	 * @param reader - dataset reader
+	 * @param nThreads - the number of worker threads
+	 */
+	public RatingProductBuilder(final DatasetReader reader, final int nThreads)
+	{
+		this(reader, nThreads, 0, 0);
+	}
+
+	/**
+	 * constructor - creates a new RatingProductBuilder object which retains only the top-N neighbours of
+	 * each item with a similarity greater than a minimum
+	 * @param reader - dataset reader
+	 * @param nThreads - the number of worker threads
+	 * @param maxNeighbours - the maximum number of neighbours retained per item (0 to retain all neighbours)
+	 * @param minSimilarity - the similarities retained are those greater than this value (and 0)
+	 */
+	public RatingProductBuilder(final DatasetReader reader, final int nThreads, final int maxNeighbours, final double minSimilarity)
+	{
+		if(nThreads < 1)
+		{
+			System.out.println("Error - invalid number of threads");
+			System.exit(1);
+		}
+		if(maxNeighbours < 0)
+		{
+			System.out.println("Error - invalid number of neighbours");
+			System.exit(1);
+		}
+
+		this.reader = reader;
+		this.nThreads = nThreads;
+		this.maxNeighbours = maxNeighbours;
+		this.minSimilarity = Math.max(0, minSimilarity);
+	}
+
+	/**
+	 * @returns a new SimilarityMap containing the similarities between all items
+	 */
+	public SimilarityMap build()
+	{
+		buildMatrix();
+
+		final int nitems = itemIds.length;
+		if(maxNeighbours > 0)
+			heaps = new NeighbourHeap[nitems];
+		else
+			rows = new Profile[nitems];
+		accumulators = new ThreadLocal<Accumulator>() {
+			protected Accumulator initialValue()
+			{
+				return new Accumulator(nitems);
+			}
+		};
+
+		if(nThreads == 1)
+			new RowTask(0, nitems).computeRows();
+		else
+		{
+			ForkJoinPool pool = new ForkJoinPool(nThreads);
+			try {
+				pool.invoke(new RowTask(0, nitems));
+			} finally {
+				pool.shutdown();
+			}
+		}
+		accumulators.remove();
+		accumulators = null;
+
+		// add the rows to the map, releasing each row once added
+		SimilarityMap simMap = new SimilarityMap(maxNeighbours, new TieOrder(reader));
+		for(int x = 0; x < nitems; x++)
+		{
+			if(maxNeighbours > 0 && heaps[x] != null)
+				simMap.setNeighbours(itemIds[x], heaps[x]);
+			else if(maxNeighbours == 0 && rows[x] != null)
+				simMap.setSimilarities(itemIds[x], rows[x]);
+		}
+		rows = null;
+		heaps = null;
+
+		simMap.compact();
+		return simMap;
+	}
+
+	/**
+	 * builds the rating matrix by item (CSR) and by user (CSC) from the user profiles - ratings of items
+	 * which are not described are ignored
+	 */
+	private void buildMatrix()
+	{
+		itemIds = SimilarityMap.getSortedIds(reader.getItems().keySet());
+		IdDictionary itemDictionary = reader.getItemDictionary();
+		int[] itemIndex = new int[itemDictionary.getSize()];
+		Arrays.fill(itemIndex, -1);
+		for(int i = 0; i < itemIds.length; i++)
+			itemIndex[itemDictionary.getIndex(itemIds[i])] = i;
+
+		// the users in ascending order of id
+		Map<Integer,Profile> userProfiles = reader.getUserProfiles();
+		int[] userIds = SimilarityMap.getSortedIds(userProfiles.keySet());
+		Profile[] profiles = new Profile[userIds.length];
+		for(int u = 0; u < userIds.length; u++)
+			profiles[u] = userProfiles.get(userIds[u]);
+
+		// count the ratings of each user and each item
+		int nitems = itemIds.length, nusers = userIds.length;
+		itemStart = new int[nitems + 1];
+		userStart = new int[nusers + 1];
+		for(int u = 0; u < nusers; u++)
+		{
+			Profile profile = profiles[u];
+			int n = 0;
+			for(int i = 0; i < profile.getSize(); i++)
+			{
+				int dense = itemDictionary.getIndex(profile.getIdAt(i));
+				int x = (dense >= 0) ? itemIndex[dense] : -1;
+				if(x >= 0)
+				{
+					itemStart[x + 1]++;
+					n++;
+				}
+			}
+			userStart[u + 1] = userStart[u] + n;
+		}
+		for(int x = 0; x < nitems; x++)
+			itemStart[x + 1] += itemStart[x];
+
+		// fill both layouts - the users are visited in ascending order of id, so the users of each item are in ascending order
+		int nratings = userStart[nusers];
+		itemUsers = new int[nratings];
+		itemRatings = new double[nratings];
+		userItems = new int[nratings];
+		userRatings = new double[nratings];
+		int[] next = Arrays.copyOf(itemStart, nitems);
+		for(int u = 0; u < nusers; u++)
+		{
+			Profile profile = profiles[u];
+			int e = userStart[u];
+			for(int i = 0; i < profile.getSize(); i++)
+			{
+				int dense = itemDictionary.getIndex(profile.getIdAt(i));
+				int x = (dense >= 0) ? itemIndex[dense] : -1;
+				if(x >= 0)
+				{
+					double rating = profile.getValueAt(i);
+					userItems[e] = x;
+					userRatings[e++] = rating;
+					itemUsers[next[x]] = u;
+					itemRatings[next[x]++] = rating;
+				}
+			}
+		}
+
+		// the norms are computed as by the item profiles
+		norms = new double[nitems];
+		for(int x = 0; x < nitems; x++)
+		{
+			double sumsq = 0;
+			for(int e = itemStart[x]; e < itemStart[x + 1]; e++)
+				sumsq += Math.pow(itemRatings[e], 2);
+			norms[x] = Math.sqrt(sumsq);
+		}
+	}
+
+	/**
+	 * A fork-join task which computes the rows [lo, hi) of the product, each worker using its own accumulator
+	 */
+	private class RowTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private static final int BLOCK_SIZE = 64; // the maximum number of rows computed by a single task
+
+		private final int lo; // the first row of the block
+		private final int hi; // one past the last row of the block
+
+		RowTask(final int lo, final int hi)
+		{
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if(hi - lo > BLOCK_SIZE)
+			{
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new RowTask(lo, mid), new RowTask(mid, hi));
+			}
+			else
+				computeRows();
+		}
+
+		/**
+		 * computes the rows of the block
+		 */
+		void computeRows()
+		{
+			Accumulator accumulator = accumulators.get();
+			double[] dots = accumulator.dots;
+			int[] marks = accumulator.marks;
+			int[] neighbours = accumulator.neighbours;
+
+			for(int x = lo; x < hi; x++)
+			{
+				// accumulate the dot products with the items rated by each user who rated x
+				int nneighbours = 0;
+				for(int e = itemStart[x]; e < itemStart[x + 1]; e++)
+				{
+					int u = itemUsers[e];
+					double rx = itemRatings[e];
+					for(int f = userStart[u]; f < userStart[u + 1]; f++)
+					{
+						int y = userItems[f];
+						if(y == x)
+							continue;
+						if(marks[y] != x + 1)
+						{
+							marks[y] = x + 1;
+							dots[y] = 0;
+							neighbours[nneighbours++] = y;
+						}
+						dots[y] += rx * userRatings[f];
+					}
+				}
+
+				// the Cosine of each neighbour, as computed by RatingMetric
+				Profile row = (maxNeighbours == 0) ? new Profile(itemIds[x]) : null;
+				NeighbourHeap heap = (maxNeighbours > 0) ? new NeighbourHeap(maxNeighbours) : null;
+				for(int n = 0; n < nneighbours; n++)
+				{
+					int y = neighbours[n];
+					double den = norms[x] * norms[y];
+					double sim = (den > 0) ? dots[y] / den : 0;
+					if(sim > minSimilarity)
+					{
+						if(row != null)
+							row.addValue(itemIds[y], sim);
+						else
+							heap.offer(itemIds[y], sim);
+					}
+				}
+
+				if(row != null && row.getSize() > 0)
+					rows[x] = row;
+				else if(heap != null && heap.getCount() > 0)
+					heaps[x] = heap;
+			}
+		}
+	}
+
+	/**
+	 * The dense accumulator of a worker - each row is computed once, so the row marks of the items
+	 * touched in earlier rows never match the current row, and the arrays need not be cleared between rows
+	 */
+	private static class Accumulator
+	{
+		private final double[] dots; // the dot product between the current item and each neighbour
+		private final int[] marks; // the row (plus one) in which each item was last touched
+		private final int[] neighbours; // the items touched in the current row
+
+		Accumulator(final int nitems)
+		{
+			dots = new double[nitems];
+			marks = new int[nitems];
+			neighbours = new int[nitems];
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * A growable buffer of (id1, id2, similarity) triples, used to collect the similarities 
+ * computed by a single worker before they are merged into a SimilarityMap
+ */
+
+package alg.np.similarity;
+
+import java.util.Arrays;
+
+class SimilarityBuffer 
+{
+	private int[] ids1; // the numeric IDs of the first items
+	private int[] ids2; // the numeric IDs of the second items
+	private double[] sims; // the corresponding similarities
+	private int size; // the number of triples in the buffer
+
+	/**
+	 * constructor - creates a new SimilarityBuffer object
+	 */
+	SimilarityBuffer()
+	{
+		ids1 = new int[16];
+		ids2 = new int[16];
+		sims = new double[16];
+		size = 0;
+	}
+
+	/**
+	 * adds a triple to the buffer
+	 * @param id1 - the numeric ID of the first item
+	 * @param id2 - the numeric ID of the second item
+	 * @param sim - the similarity between the items
+	 */
+	void add(final int id1, final int id2, final double sim)
+	{
+		if(size == sims.length)
+		{
+			int capacity = size * 2;
+			ids1 = Arrays.copyOf(ids1, capacity);
+			ids2 = Arrays.copyOf(ids2, capacity);
+			sims = Arrays.copyOf(sims, capacity);
+		}
+
+		ids1[size] = id1;
+		ids2[size] = id2;
+		sims[size] = sim;
+		size++;
+	}
+
+	/**
+	 * @returns the number of triples in the buffer
+	 */
+	int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * @returns the numeric ID of the first item of a triple
+	 * @param index - the index of the triple
+	 */
+	int getId1(final int index)
+	{
+		return ids1[index];
+	}
+
+	/**
+	 * @returns the numeric ID of the second item of a triple
+	 * @param index - the index of the triple
+	 */
+	int getId2(final int index)
+	{
+		return ids2[index];
+	}
+
+	/**
+	 * @returns the similarity of a triple
+	 * @param index - the index of the triple
+	 */
+	double getSimilarity(final int index)
+	{
+		return sims[index];
+	}
+}
@@ -1,27 +1,86 @@
 /**
- * This class computes and stores the pairwise similarities between all items
+ * This class computes and stores the pairwise similarities between all items.
+ * A map can be bounded, in which case only the top-N neighbours of each item are retained.
+ * Neighbours with equal similarities are ranked as by the original recommender (see TieOrder).
+ * The rows of the map are held in arrays indexed by the dense index of each item in the map's own
+ * IdDictionary, so item ids are translated to indexes only by the public methods.
  */
 
 package alg.np.similarity;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import profile.Profile;
+import alg.np.similarity.metric.GenomeMetric;
+import alg.np.similarity.metric.GenreMetric;
+import alg.np.similarity.metric.IncConfidenceMetric;
+import alg.np.similarity.metric.RatingMetric;
 import alg.np.similarity.metric.SimilarityMetric;
+import util.IdDictionary;
 import util.reader.DatasetReader;
 
-public class SimilarityMap 
+public class SimilarityMap implements SimilarityStore
 {
-	private Map<Integer,Profile> simMap; // stores item-item similarities
+	static final long CHUNK_PAIRS = 1L << 20; // the number of pairs computed in parallel before they are merged into the map
+
+	private IdDictionary itemDictionary; // the dense index of each item in the map
+	private Profile[] simMap; // stores item-item similarities by dense index (null if an item has no similarities)
+	private int nprofiles; // the number of items with similarities
+	private int maxNeighbours; // the maximum number of neighbours retained per item (0 if all neighbours are retained)
+	private NeighbourHeap[] heaps; // the top-N neighbours of each item by dense index (bounded maps only)
+	private int[][] rankings; // the retained neighbours of each item by dense index in descending order of similarity (bounded maps only)
+	private TieOrder tieOrder; // the order in which neighbours with equal similarities are ranked
 
 	/**
 	 * constructor - creates a new SimilarityMap object
 	 */
 	public SimilarityMap()
 	{
-		simMap = new HashMap<Integer,Profile>();
+		this(0);
+	}
+
+	/**
+	 * constructor - creates a new SimilarityMap object which retains only the top-N neighbours of each item -
+	 * each pair of items must be set at most once, and compact() must be called once all pairs have been set
+	 * @param maxNeighbours - the maximum number of neighbours retained per item (0 to retain all neighbours)
+	 */
+	public SimilarityMap(final int maxNeighbours)
+	{
+		this(maxNeighbours, TieOrder.ASCENDING_ID);
+	}
+
+	/**
+	 * constructor - creates a new SimilarityMap object which retains only the top-N neighbours of each item,
+	 * ranking neighbours with equal similarities in the given order
+	 * @param maxNeighbours - the maximum number of neighbours retained per item (0 to retain all neighbours)
+	 * @param tieOrder - the order in which neighbours with equal similarities are ranked
+	 */
+	SimilarityMap(final int maxNeighbours, final TieOrder tieOrder)
+	{
+		if(maxNeighbours < 0)
+		{
+			System.out.println("Error - invalid number of neighbours");
+			System.exit(1);
+		}
+
+		itemDictionary = new IdDictionary(new ArrayList<Integer>());
+		simMap = new Profile[0];
+		nprofiles = 0;
+		this.maxNeighbours = maxNeighbours;
+		this.tieOrder = tieOrder;
+		if(maxNeighbours > 0)
+		{
+			heaps = new NeighbourHeap[0];
+			rankings = new int[0][];
+		}
 	}
 
 	/**
@@ -31,42 +90,151 @@ public class SimilarityMap
 	 */
 	public SimilarityMap(final DatasetReader reader, final SimilarityMetric metric)
 	{		
-		simMap = new HashMap<Integer,Profile>();
+		this(0, new TieOrder(reader));
 
 		// get the set of item ids
 		Set<Integer> itemIds = reader.getItems().keySet();
 
 		// compute pairwise similarities between item profiles
+		boolean symmetric = isSymmetric(metric);
 		for(Integer id1: itemIds)
 			for(Integer id2: itemIds)
 				if(id2 < id1) {
-					if(metric instanceof alg.np.similarity.metric.GenreMetric ||
-							metric instanceof alg.np.similarity.metric.GenomeMetric ||
-							metric instanceof alg.np.similarity.metric.RatingMetric) { // similarities are symmetric
+					if(symmetric) { // similarities are symmetric
 						double sim = metric.getItemSimilarity(id1, id2);
 						if (sim > 0) {
 							setSimilarity(id1, id2, sim);
 							setSimilarity(id2, id1, sim);
 						}
-					} else if (metric instanceof alg.np.similarity.metric.IncConfidenceMetric) { // similarities are not symmetric
+					} else { // similarities are not symmetric
 						double sim = metric.getItemSimilarity(id1, id2);
 						if(sim > 1) setSimilarity(id1, id2, sim);
 						
 						sim = metric.getItemSimilarity(id2, id1);
 						if(sim > 1) setSimilarity(id2, id1, sim);
-					} else {
-						System.out.println("Error - invalid similarity metric");
-						System.exit(1);
 					}
 				}
+
+		compact();
+	}
+
+	/**
+	 * constructor - creates a new SimilarityMap object, computing the pairwise similarities 
+	 * in parallel over blocks of item ids (the resulting map is identical to that created 
+	 * by the sequential constructor)
+	 * @param reader - dataset reader
+	 * @param metric - similarity metric
+	 * @param nThreads - the number of worker threads
+	 */
+	public SimilarityMap(final DatasetReader reader, final SimilarityMetric metric, final int nThreads)
+	{
+		this(reader, metric, nThreads, 0);
 	}
 
 	/**
-	 * @returns the numeric IDs of the profiles
+	 * constructor - creates a new SimilarityMap object, computing the pairwise similarities 
+	 * in parallel and retaining only the top-N neighbours of each item
+	 * @param reader - dataset reader
+	 * @param metric - similarity metric
+	 * @param nThreads - the number of worker threads
+	 * @param maxNeighbours - the maximum number of neighbours retained per item (0 to retain all neighbours)
+	 */
+	public SimilarityMap(final DatasetReader reader, final SimilarityMetric metric, final int nThreads, final int maxNeighbours)
+	{
+		this(maxNeighbours, new TieOrder(reader));
+
+		if(nThreads < 1)
+		{
+			System.out.println("Error - invalid number of threads");
+			System.exit(1);
+		}
+
+		// get the item ids in ascending order, so that each block pairs its items with all lower ids
+		int[] itemIds = getSortedIds(reader.getItems().keySet());
+		boolean symmetric = isSymmetric(metric);
+
+		// the rows are computed in chunks of about CHUNK_PAIRS pairs, each chunk being merged into the map
+		// before the next is computed - so at most a chunk of similarities is buffered at once, and a
+		// bounded map holds only the top-N neighbours of each item
+		ForkJoinPool pool = new ForkJoinPool(nThreads);
+		try {
+			int lo = 0;
+			while(lo < itemIds.length) {
+				int hi = lo + 1; // row i pairs its item with the i items with a lower id
+				long npairs = lo;
+				while(hi < itemIds.length && npairs + hi <= CHUNK_PAIRS)
+					npairs += hi++;
+
+				// each worker collects its similarities in its own buffer
+				List<SimilarityBuffer> buffers = pool.invoke(new BuildTask(itemIds, lo, hi, metric, symmetric));
+
+				// merge the worker buffers into the map, releasing each buffer once merged
+				for(int b = 0; b < buffers.size(); b++) {
+					SimilarityBuffer buffer = buffers.set(b, null);
+					for(int i = 0; i < buffer.getSize(); i++) {
+						int id1 = buffer.getId1(i);
+						int id2 = buffer.getId2(i);
+						double sim = buffer.getSimilarity(i);
+						setSimilarity(id1, id2, sim);
+						if(symmetric) setSimilarity(id2, id1, sim);
+					}
+				}
+				lo = hi;
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		compact();
+	}
+
+	/**
+	 * @returns the numeric IDs of the profiles (a read-only view)
 	 */
 	public Set<Integer> getIds()
 	{
-		return simMap.keySet();
+		return new AbstractSet<Integer>() {
+			@Override
+			public Iterator<Integer> iterator()
+			{
+				return new Iterator<Integer>() {
+					private int next = advance(0);
+
+					public boolean hasNext()
+					{
+						return next < simMap.length;
+					}
+
+					public Integer next()
+					{
+						if(next >= simMap.length)
+							throw new NoSuchElementException();
+						int id = itemDictionary.getId(next);
+						next = advance(next + 1);
+						return id;
+					}
+
+					private int advance(int index)
+					{
+						while(index < simMap.length && simMap[index] == null)
+							index++;
+						return index;
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(final Object o)
+			{
+				return (o instanceof Integer) && getSimilarities((Integer)o) != null;
+			}
+
+			@Override
+			public int size()
+			{
+				return nprofiles;
+			}
+		};
 	}
 
 	/**
@@ -75,7 +243,70 @@ public class SimilarityMap
 	 */
 	public Profile getSimilarities(Integer id)
 	{
-		return simMap.get(id);
+		int index = getIndex(id);
+		return (index >= 0) ? simMap[index] : null;
+	}
+
+	/**
+	 * @returns the neighbours of an item in descending order of similarity (ties in the order of the original
+	 * recommender), or null if the map is not bounded or the item has no neighbours
+	 * @param the numeric ID of the item
+	 */
+	public int[] getNeighbours(final Integer id)
+	{
+		int index = getIndex(id);
+		return (rankings != null && index >= 0) ? rankings[index] : null;
+	}
+
+	/**
+	 * @returns the top-k neighbours of an item (those with a similarity greater than 0) in descending 
+	 * order of similarity (ties in the order of the original recommender) - the neighbours are selected
+	 * using a bounded heap, so the similarity profile is not sorted
+	 * @param the numeric ID of the item
+	 * @param k - the maximum number of neighbours returned
+	 */
+	public int[] getTopNeighbours(final Integer id, final int k)
+	{
+		int[] ranked = getNeighbours(id);
+		if(ranked != null)
+			return (ranked.length > k) ? Arrays.copyOf(ranked, k) : ranked.clone();
+
+		Profile profile = getSimilarities(id);
+		if(profile == null || k <= 0)
+			return new int[0];
+
+		NeighbourHeap heap = new NeighbourHeap(Math.min(k, profile.getSize()));
+		for(int i = 0; i < profile.getSize(); i++)
+		{
+			double sim = profile.getValueAt(i);
+			if(sim > 0)
+				heap.offer(profile.getIdAt(i), sim);
+		}
+		return heap.getRankedIds(tieOrder, id, profile.getSize());
+	}
+
+	/**
+	 * @returns the number of neighbours of an item - for a bounded map, this includes the neighbours not retained
+	 * @param the numeric ID of the item
+	 */
+	public int getNeighbourCount(final Integer id)
+	{
+		if(heaps != null)
+		{
+			int index = getIndex(id);
+			return (index >= 0 && heaps[index] != null) ? heaps[index].getCount() : 0;
+		}
+
+		Profile profile = getSimilarities(id);
+		return (profile != null) ? profile.getSize() : 0;
+	}
+
+	/**
+	 * @returns the maximum number of neighbours retained per item (0 if all neighbours are retained)
+	 */
+	public int getMaxNeighbours()
+	{
+		return maxNeighbours;
 	}
 
 	/**
@@ -85,10 +316,8 @@ public class SimilarityMap
 	 */
 	public double getSimilarity(final Integer id1, final Integer id2)
 	{
-		if(simMap.containsKey(id1))
-			return (simMap.get(id1).contains(id2) ? simMap.get(id1).getValue(id2).doubleValue() : 0);
-		else 
-			return 0;
+		Profile profile = getSimilarities(id1);
+		return (profile != null) ? profile.getValue(id2.intValue(), 0) : 0;
 	}
 
 	/**
@@ -98,9 +327,166 @@ public class SimilarityMap
 	 */
 	public void setSimilarity(final Integer id1, final Integer id2, final double sim)
 	{
-		Profile profile = simMap.containsKey(id1) ? simMap.get(id1) : new Profile(id1);
-		profile.addValue(id2, new Double(sim));
-		simMap.put(id1, profile);
+		int index = addIndex(id1);
+		if(heaps != null)
+		{
+			if(heaps[index] == null)
+				heaps[index] = new NeighbourHeap(maxNeighbours);
+			heaps[index].offer(id2, sim);
+			return;
+		}
+
+		if(simMap[index] == null)
+		{
+			simMap[index] = new Profile(id1);
+			nprofiles++;
+		}
+		simMap[index].addValue(id2.intValue(), sim);
+	}
+
+	/**
+	 * adds all the similarities of an item to the map at once, replacing any already added - not supported by bounded maps
+	 * @param id - the numeric ID of the item
+	 * @param profile - the similarities of the item
+	 */
+	void setSimilarities(final Integer id, final Profile profile)
+	{
+		if(heaps != null)
+		{
+			System.out.println("Error - a similarity profile cannot be added to a bounded similarity map");
+			System.exit(1);
+		}
+
+		int index = addIndex(id);
+		if(simMap[index] == null)
+			nprofiles++;
+		simMap[index] = profile;
+	}
+
+	/**
+	 * adds the top-N neighbours of an item to a bounded map at once, replacing any already added
+	 * @param id - the numeric ID of the item
+	 * @param heap - the top-N neighbours of the item (the heap must retain at most the maximum number of neighbours of the map)
+	 */
+	void setNeighbours(final Integer id, final NeighbourHeap heap)
+	{
+		if(heaps == null)
+		{
+			System.out.println("Error - neighbours cannot be added to an unbounded similarity map");
+			System.exit(1);
+		}
+
+		int index = addIndex(id);
+		heaps[index] = heap;
+	}
+
+	/**
+	 * removes the similarity between two profiles from the map - not supported by bounded maps
+	 * @param the numeric ID of the first profile
+	 * @param the numeric ID of the second profile
+	 */
+	public void removeSimilarity(final Integer id1, final Integer id2)
+	{
+		if(heaps != null)
+		{
+			System.out.println("Error - similarities cannot be removed from a bounded similarity map");
+			System.exit(1);
+		}
+
+		int index = getIndex(id1);
+		Profile profile = (index >= 0) ? simMap[index] : null;
+		if(profile != null && profile.removeValue(id2.intValue()) && profile.getSize() == 0)
+		{
+			simMap[index] = null;
+			nprofiles--;
+		}
+	}
+
+	/**
+	 * sorts and trims all similarity profiles - called once the map has been built
+	 */
+	public void compact()
+	{
+		if(heaps != null)
+		{
+			// replace the similarity profiles and rankings with the retained neighbours
+			for(int index = 0; index < heaps.length; index++)
+			{
+				NeighbourHeap heap = heaps[index];
+				if(heap == null)
+					continue;
+				Integer id = itemDictionary.getId(index);
+				if(simMap[index] == null)
+					nprofiles++;
+				simMap[index] = heap.toProfile(tieOrder, id, heap.getCount());
+				rankings[index] = heap.getRankedIds(tieOrder, id, heap.getCount());
+			}
+		}
+
+		for(Profile profile: simMap)
+			if(profile != null)
+				profile.compact();
+	}
+
+	/**
+	 * @returns the dense index of an item in the map (-1 if the item has not been added)
+	 * @param id - the numeric ID of the item
+	 */
+	private int getIndex(final Integer id)
+	{
+		int index = itemDictionary.getIndex(id.intValue());
+		return (index < simMap.length) ? index : -1;
+	}
+
+	/**
+	 * adds an item to the map, if not already added, growing the arrays held by dense index
+	 * @returns the dense index of the item
+	 * @param id - the numeric ID of the item
+	 */
+	private int addIndex(final Integer id)
+	{
+		int index = itemDictionary.add(id.intValue());
+		if(index >= simMap.length)
+		{
+			int capacity = Math.max(index + 1, 2 * simMap.length);
+			simMap = Arrays.copyOf(simMap, capacity);
+			if(heaps != null)
+			{
+				heaps = Arrays.copyOf(heaps, capacity);
+				rankings = Arrays.copyOf(rankings, capacity);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * @returns true if the similarities computed by the metric are symmetric
+	 * @param metric - similarity metric
+	 */
+	static boolean isSymmetric(final SimilarityMetric metric)
+	{
+		if(metric instanceof GenreMetric || metric instanceof GenomeMetric || metric instanceof RatingMetric)
+			return true;
+		else if(metric instanceof IncConfidenceMetric)
+			return false;
+
+		System.out.println("Error - invalid similarity metric");
+		System.exit(1);
+		return false;
+	}
+
+	/**
+	 * @returns the IDs in ascending order
+	 * @param ids - a set of numeric IDs
+	 */
+	static int[] getSortedIds(final Set<Integer> ids)
+	{
+		int[] sorted = new int[ids.size()];
+		int i = 0;
+		for(Integer id: ids)
+			sorted[i++] = id;
+		Arrays.sort(sorted);
+		return sorted;
 	}
 
 	/**
@@ -111,9 +497,71 @@ public class SimilarityMap
 	{
 		StringBuffer buf = new StringBuffer();
 
-		for(Integer id: simMap.keySet())
-			buf.append(simMap.get(id).toString());
+		for(Profile profile: simMap)
+			if(profile != null)
+				buf.append(profile.toString());
 
 		return buf.toString();
 	}
+
+	/**
+	 * A fork-join task which computes the similarities between the items in a block 
+	 * of rows [lo, hi) and all items with a lower id
+	 */
+	private static class BuildTask extends RecursiveTask<List<SimilarityBuffer>>
+	{
+		private static final long serialVersionUID = 1L;
+		private static final int BLOCK_SIZE = 16; // the maximum number of rows processed by a single task
+
+		private final int[] itemIds; // the item ids in ascending order
+		private final int lo; // the first row of the block
+		private final int hi; // one past the last row of the block
+		private final SimilarityMetric metric; // similarity metric
+		private final boolean symmetric; // true if the similarities are symmetric
+
+		BuildTask(final int[] itemIds, final int lo, final int hi, final SimilarityMetric metric, final boolean symmetric)
+		{
+			this.itemIds = itemIds;
+			this.lo = lo;
+			this.hi = hi;
+			this.metric = metric;
+			this.symmetric = symmetric;
+		}
+
+		@Override
+		protected List<SimilarityBuffer> compute()
+		{
+			if(hi - lo > BLOCK_SIZE)
+			{
+				int mid = (lo + hi) >>> 1;
+				BuildTask left = new BuildTask(itemIds, lo, mid, metric, symmetric);
+				BuildTask right = new BuildTask(itemIds, mid, hi, metric, symmetric);
+				left.fork();
+				List<SimilarityBuffer> buffers = new ArrayList<SimilarityBuffer>(right.compute());
+				buffers.addAll(0, left.join());
+				return buffers;
+			}
+
+			SimilarityBuffer buffer = new SimilarityBuffer();
+			for(int i = lo; i < hi; i++)
+				for(int j = 0; j < i; j++) {
+					int id1 = itemIds[i];
+					int id2 = itemIds[j];
+					if(symmetric) {
+						double sim = metric.getItemSimilarity(id1, id2);
+						if(sim > 0) buffer.add(id1, id2, sim);
+					} else {
+						double sim = metric.getItemSimilarity(id1, id2);
+						if(sim > 1) buffer.add(id1, id2, sim);
+
+						sim = metric.getItemSimilarity(id2, id1);
+						if(sim > 1) buffer.add(id2, id1, sim);
+					}
+				}
+
+			List<SimilarityBuffer> buffers = new ArrayList<SimilarityBuffer>();
+			buffers.add(buffer);
+			return buffers;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+/**
+ * An interface to read the item-item similarities used to make recommendations
+ */
+
+package alg.np.similarity;
+
+import java.util.Set;
+
+import profile.Profile;
+
+public interface SimilarityStore
+{
+	/**
+	 * @returns the numeric IDs of the items which have similarities
+	 */
+	public Set<Integer> getIds();
+
+	/**
+	 * @returns the similarity profile of an item (or null if the item has no similarities)
+	 * @param the numeric ID of the item
+	 */
+	public Profile getSimilarities(final Integer id);
+
+	/**
+	 * @returns the similarity between two items (0 if not stored)
+	 * @param the numeric ID of the first item
+	 * @param the numeric ID of the second item
+	 */
+	public double getSimilarity(final Integer id1, final Integer id2);
+
+	/**
+	 * @returns the neighbours of an item in descending order of similarity (ties in the order of the original recommender),
+	 * or null if all neighbours of each item are stored (rather than the top-N) or the item has no neighbours
+	 * @param the numeric ID of the item
+	 */
+	public int[] getNeighbours(final Integer id);
+
+	/**
+	 * @returns the top-k neighbours of an item in descending order of similarity (ties in the order of the original recommender)
+	 * @param the numeric ID of the item
+	 * @param k - the maximum number of neighbours returned
+	 */
+	public int[] getTopNeighbours(final Integer id, final int k);
+
+	/**
+	 * @returns the number of neighbours of an item, including any neighbours not stored
+	 * @param the numeric ID of the item
+	 */
+	public int getNeighbourCount(final Integer id);
+
+	/**
+	 * @returns the maximum number of neighbours stored per item (0 if all neighbours are stored)
+	 */
+	public int getMaxNeighbours();
+}
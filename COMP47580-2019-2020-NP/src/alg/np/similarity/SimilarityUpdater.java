@@ -0,0 +1,369 @@
+/**
+ * This class keeps a SimilarityMap up to date as new ratings are received, without rebuilding the map.
+ * The running statistics from which the similarities are computed are maintained for each item and
+ * each pair of co-rated items: the sums of squared ratings and the dot products (RatingMetric), or
+ * the liked counts and co-occurrence counts (IncConfidenceMetric). A new rating changes only the
+ * statistics of the rated item and its pairs with the other items rated by the user, so only the
+ * similarities between the rated item and its co-rated items are recomputed. The similarities of
+ * the other metrics do not depend on the ratings, so are not changed.
+ *
+ * The similarities maintained are those which a rebuild would compute, up to the rounding of the
+ * running dot products. An updater is not thread-safe - the similarity map must not be read while
+ * a rating is being added.
+ */
+
+package alg.np.similarity;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import alg.np.similarity.metric.IncConfidenceMetric;
+import alg.np.similarity.metric.RatingMetric;
+import alg.np.similarity.metric.SimilarityMetric;
+import profile.Profile;
+import util.IdDictionary;
+import util.reader.DatasetReader;
+
+public class SimilarityUpdater
+{
+	private DatasetReader reader; // dataset reader
+	private SimilarityMetric metric; // similarity metric
+	private SimilarityMap simMap; // the similarity map which is updated
+
+	private Profile sumsq; // the sum of the squared ratings of each item (RatingMetric only)
+	private Map<Integer,Profile> dots; // the dot product between the ratings of each pair of co-rated items (RatingMetric only)
+
+	private Profile likedCounts; // the number of users who liked each item (IncConfidenceMetric only)
+	private Map<Integer,Profile> coCounts; // the number of users who rated each pair of items (IncConfidenceMetric only)
+	private Map<Integer,Profile> coLiked; // the number of users who liked each pair of items (IncConfidenceMetric only)
+	private Map<Integer,Profile> coNotLiked; // the number of users who did not like the first item and liked the second (IncConfidenceMetric only)
+	private Map<Integer,Profile> coLikedNot; // the number of users who liked the first item and did not like the second (IncConfidenceMetric only)
+
+	/**
+	 * constructor - creates a new SimilarityUpdater object, computing the running statistics from the ratings loaded
+	 * @param reader - dataset reader
+	 * @param metric - the similarity metric from which the map was built
+	 * @param simMap - the similarity map built from the ratings loaded (must not be bounded)
+	 */
+	public SimilarityUpdater(final DatasetReader reader, final SimilarityMetric metric, final SimilarityMap simMap)
+	{
+		if(simMap.getMaxNeighbours() > 0)
+		{
+			System.out.println("Error - a bounded similarity map cannot be updated");
+			System.exit(1);
+		}
+		SimilarityMap.isSymmetric(metric); // validates the metric
+
+		this.reader = reader;
+		this.metric = metric;
+		this.simMap = simMap;
+
+		if(metric instanceof RatingMetric)
+		{
+			sumsq = new Profile(0);
+			dots = new HashMap<Integer,Profile>();
+		}
+		else if(metric instanceof IncConfidenceMetric)
+		{
+			likedCounts = new Profile(0);
+			coCounts = new HashMap<Integer,Profile>();
+			coLiked = new HashMap<Integer,Profile>();
+			coNotLiked = new HashMap<Integer,Profile>();
+			coLikedNot = new HashMap<Integer,Profile>();
+		}
+		else
+			return; // the similarities do not depend on the ratings
+
+		initStatistics();
+	}
+
+	/**
+	 * @returns the similarity map which is updated
+	 */
+	public SimilarityMap getSimilarityMap()
+	{
+		return simMap;
+	}
+
+	/**
+	 * adds a rating to the user and item profiles and updates the similarities of the rated item -
+	 * a rating for an item the user has already rated replaces the existing rating
+	 * @param userId - the numeric ID of the user
+	 * @param itemId - the numeric ID of the item
+	 * @param rating - the rating
+	 * @returns the IDs of the items whose similarities may have changed
+	 */
+	public Set<Integer> addRating(final Integer userId, final Integer itemId, final double rating)
+	{
+		Double previous = reader.addRating(userId, itemId, rating);
+
+		Set<Integer> updated = new HashSet<Integer>();
+		if(reader.getItem(itemId) == null || (previous != null && previous.doubleValue() == rating))
+			return updated; // the similarities are computed between known items only
+
+		Profile up = reader.getUserProfile(userId);
+		if(metric instanceof RatingMetric)
+			updateDotProducts(up, itemId, rating, previous, updated);
+		else if(metric instanceof IncConfidenceMetric)
+			updateCoCounts(up, itemId, rating, previous, updated);
+
+		return updated;
+	}
+
+	/**
+	 * computes the running statistics of each item, and of each pair of co-rated items, from the item profiles
+	 */
+	private void initStatistics()
+	{
+		// the index of each known item in itemIds by dense index (-1 for items which are rated but not known)
+		int[] itemIds = SimilarityMap.getSortedIds(reader.getItems().keySet());
+		IdDictionary itemDictionary = reader.getItemDictionary();
+		IdDictionary userDictionary = reader.getUserDictionary();
+		int[] itemIndex = new int[itemDictionary.getSize()];
+		Arrays.fill(itemIndex, -1);
+		for(int i = 0; i < itemIds.length; i++)
+			itemIndex[itemDictionary.getIndex(itemIds[i])] = i;
+
+		int[] counts = new int[itemIds.length];
+		double[] sums = new double[itemIds.length];
+		int[] liked = new int[itemIds.length];
+		int[] notLiked = new int[itemIds.length];
+		int[] likedNot = new int[itemIds.length];
+		int[] candidates = new int[itemIds.length];
+
+		for(int x = 0; x < itemIds.length; x++)
+		{
+			Profile Xrating = reader.getItemProfile(itemIds[x]);
+			if(Xrating == null)
+				continue;
+
+			// visit the users who rated item x in ascending order, so that the dot products are
+			// accumulated in the same order as by RatingMetric
+			int ncandidates = 0;
+			for(int i = 0; i < Xrating.getSize(); i++)
+			{
+				double rx = Xrating.getValueAt(i);
+				boolean likedX = IncConfidenceMetric.isLiked(rx);
+				Profile up = reader.getUserProfileAt(userDictionary.getIndex(Xrating.getIdAt(i)));
+				for(int j = 0; j < up.getSize(); j++)
+				{
+					int y = itemIndex[itemDictionary.getIndex(up.getIdAt(j))];
+					if(y < 0 || y == x)
+						continue; // ignore ratings for unknown items
+					if(counts[y]++ == 0)
+						candidates[ncandidates++] = y;
+
+					double ry = up.getValueAt(j);
+					sums[y] += rx * ry;
+					if(IncConfidenceMetric.isLiked(ry))
+					{
+						if(likedX)
+							liked[y]++;
+						else
+							notLiked[y]++;
+					}
+					else if(likedX)
+						likedNot[y]++;
+				}
+			}
+
+			// add the statistics in ascending order of item ID
+			Arrays.sort(candidates, 0, ncandidates);
+			for(int c = 0; c < ncandidates; c++)
+			{
+				int y = candidates[c];
+				if(metric instanceof RatingMetric)
+					getRow(dots, itemIds[x]).addValue(itemIds[y], sums[y]);
+				else
+				{
+					getRow(coCounts, itemIds[x]).addValue(itemIds[y], counts[y]);
+					if(liked[y] > 0)
+						getRow(coLiked, itemIds[x]).addValue(itemIds[y], liked[y]);
+					if(notLiked[y] > 0)
+						getRow(coNotLiked, itemIds[x]).addValue(itemIds[y], notLiked[y]);
+					if(likedNot[y] > 0)
+						getRow(coLikedNot, itemIds[x]).addValue(itemIds[y], likedNot[y]);
+				}
+				counts[y] = 0;
+				sums[y] = 0;
+				liked[y] = 0;
+				notLiked[y] = 0;
+				likedNot[y] = 0;
+			}
+
+			// the item statistics
+			if(metric instanceof RatingMetric)
+			{
+				double sum = 0;
+				for(int i = 0; i < Xrating.getSize(); i++)
+					sum += Math.pow(Xrating.getValueAt(i), 2);
+				sumsq.addValue(itemIds[x], sum);
+			}
+			else
+				likedCounts.addValue(itemIds[x], Xrating.getStatistics().getLikedCount());
+		}
+	}
+
+	/**
+	 * updates the dot products and norm of the rated item, and recomputes its similarities (RatingMetric)
+	 * @param up - the profile of the user who rated the item
+	 * @param itemId - the numeric ID of the item
+	 * @param rating - the rating
+	 * @param previous - the rating replaced (or null if the user had not rated the item)
+	 * @param updated - the IDs of the items whose similarities may have changed
+	 */
+	private void updateDotProducts(final Profile up, final Integer itemId, final double rating, final Double previous, final Set<Integer> updated)
+	{
+		double old = (previous != null) ? previous.doubleValue() : 0;
+		double delta = rating - old;
+		sumsq.addValue(itemId.intValue(), sumsq.getValue(itemId.intValue(), 0) + Math.pow(rating, 2) - Math.pow(old, 2));
+
+		// only the dot products with the other items rated by the user change - all are read before any is 
+		// written, as a profile is re-sorted when it is read after a new ID has been added
+		Profile row = getRow(dots, itemId);
+		int[] ys = getCoRatedItems(up, itemId);
+		double[] newDots = new double[ys.length];
+		for(int k = 0; k < ys.length; k++)
+			newDots[k] = row.getValue(ys[k], 0) + up.getValue(ys[k], 0) * delta;
+		for(int k = 0; k < ys.length; k++)
+		{
+			row.addValue(ys[k], newDots[k]);
+			getRow(dots, ys[k]).addValue(itemId.intValue(), newDots[k]);
+		}
+
+		// the norm of the item has changed, so all of its similarities change
+		double norX = Math.sqrt(sumsq.getValue(itemId.intValue(), 0));
+		for(int i = 0; i < row.getSize(); i++)
+		{
+			Integer y = row.getIdAt(i);
+			double sim = RatingMetric.getSimilarity(row.getValueAt(i), norX, Math.sqrt(sumsq.getValue(y.intValue(), 0)));
+			setSimilarity(itemId, y, sim, 0);
+			setSimilarity(y, itemId, sim, 0);
+			updated.add(y);
+		}
+		updated.add(itemId);
+	}
+
+	/**
+	 * updates the liked and co-occurrence counts of the rated item, and recomputes its similarities (IncConfidenceMetric)
+	 * @param up - the profile of the user who rated the item
+	 * @param itemId - the numeric ID of the item
+	 * @param rating - the rating
+	 * @param previous - the rating replaced (or null if the user had not rated the item)
+	 * @param updated - the IDs of the items whose similarities may have changed
+	 */
+	private void updateCoCounts(final Profile up, final Integer itemId, final double rating, final Double previous, final Set<Integer> updated)
+	{
+		int liked = IncConfidenceMetric.isLiked(rating) ? 1 : 0;
+		int wasLiked = (previous != null && IncConfidenceMetric.isLiked(previous.doubleValue())) ? 1 : 0;
+		int wasNotLiked = (previous != null && !IncConfidenceMetric.isLiked(previous.doubleValue())) ? 1 : 0;
+		likedCounts.addValue(itemId.intValue(), likedCounts.getValue(itemId.intValue(), 0) + liked - wasLiked);
+
+		// only the counts with the other items rated by the user change - all are read before any is written
+		Profile countRow = getRow(coCounts, itemId);
+		Profile likedRow = getRow(coLiked, itemId);
+		Profile notLikedRow = getRow(coNotLiked, itemId);
+		Profile likedNotRow = getRow(coLikedNot, itemId);
+		int[] ys = getCoRatedItems(up, itemId);
+		double[][] newCounts = new double[4][ys.length];
+		for(int k = 0; k < ys.length; k++)
+		{
+			int likedY = IncConfidenceMetric.isLiked(up.getValue(ys[k], 0)) ? 1 : 0;
+			newCounts[0][k] = countRow.getValue(ys[k], 0) + ((previous == null) ? 1 : 0);
+			newCounts[1][k] = likedRow.getValue(ys[k], 0) + likedY * (liked - wasLiked);
+			newCounts[2][k] = notLikedRow.getValue(ys[k], 0) + likedY * ((1 - liked) - wasNotLiked);
+			newCounts[3][k] = likedNotRow.getValue(ys[k], 0) + (1 - likedY) * (liked - wasLiked);
+		}
+
+		// each count is also stored from the point of view of the other item
+		for(int k = 0; k < ys.length; k++)
+		{
+			setCount(coCounts, coCounts, itemId, ys[k], newCounts[0][k]);
+			setCount(coLiked, coLiked, itemId, ys[k], newCounts[1][k]);
+			setCount(coNotLiked, coLikedNot, itemId, ys[k], newCounts[2][k]);
+			setCount(coLikedNot, coNotLiked, itemId, ys[k], newCounts[3][k]);
+		}
+
+		// the counts of the item have changed, so all of its similarities change
+		int nX = reader.getItemProfile(itemId).getSize();
+		int CX = (int)likedCounts.getValue(itemId.intValue(), 0);
+		for(int i = 0; i < countRow.getSize(); i++)
+		{
+			Integer y = countRow.getIdAt(i);
+			int nY = reader.getItemProfile(y).getSize();
+			int CY = (int)likedCounts.getValue(y.intValue(), 0);
+			int nXandY = (int)countRow.getValueAt(i);
+			int CXAndY = (int)likedRow.getValue(y.intValue(), 0);
+			setSimilarity(itemId, y, IncConfidenceMetric.getSimilarity(nX, CX, nY, nXandY, CXAndY, (int)notLikedRow.getValue(y.intValue(), 0)), 1);
+			setSimilarity(y, itemId, IncConfidenceMetric.getSimilarity(nY, CY, nX, nXandY, CXAndY, (int)likedNotRow.getValue(y.intValue(), 0)), 1);
+			updated.add(y);
+		}
+		updated.add(itemId);
+	}
+
+	/**
+	 * @returns the IDs of the known items, other than the rated item, which the user has rated
+	 * @param up - the profile of the user who rated the item
+	 * @param itemId - the numeric ID of the rated item
+	 */
+	private int[] getCoRatedItems(final Profile up, final Integer itemId)
+	{
+		int[] ys = new int[up.getSize()];
+		int n = 0;
+		for(int i = 0; i < up.getSize(); i++)
+		{
+			int y = up.getIdAt(i);
+			if(y != itemId.intValue() && reader.getItem(y) != null)
+				ys[n++] = y;
+		}
+		return Arrays.copyOf(ys, n);
+	}
+
+	/**
+	 * sets a count between two items
+	 * @param rows - the counts from the point of view of the first item
+	 * @param mirrorRows - the counts from the point of view of the second item
+	 * @param id1 - the numeric ID of the first item
+	 * @param id2 - the numeric ID of the second item
+	 * @param count - the count
+	 */
+	private static void setCount(final Map<Integer,Profile> rows, final Map<Integer,Profile> mirrorRows, final Integer id1, final int id2, final double count)
+	{
+		getRow(rows, id1).addValue(id2, count);
+		getRow(mirrorRows, id2).addValue(id1.intValue(), count);
+	}
+
+	/**
+	 * sets a similarity in the map if it is greater than the threshold used to build the map, and otherwise removes it
+	 * @param id1 - the numeric ID of the first item
+	 * @param id2 - the numeric ID of the second item
+	 * @param sim - the similarity
+	 * @param threshold - the threshold
+	 */
+	private void setSimilarity(final Integer id1, final Integer id2, final double sim, final double threshold)
+	{
+		if(sim > threshold)
+			simMap.setSimilarity(id1, id2, sim);
+		else
+			simMap.removeSimilarity(id1, id2);
+	}
+
+	/**
+	 * @returns the statistics of an item, creating them if necessary
+	 * @param rows - the statistics of each item
+	 * @param id - the numeric ID of the item
+	 */
+	private static Profile getRow(final Map<Integer,Profile> rows, final Integer id)
+	{
+		Profile row = rows.get(id);
+		if(row == null)
+		{
+			row = new Profile(id);
+			rows.put(id, row);
+		}
+		return row;
+	}
+}
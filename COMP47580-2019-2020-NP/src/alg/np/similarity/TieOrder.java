@@ -0,0 +1,104 @@
+/**
+ * This class gives the order in which neighbours with equal similarities to an item are ranked, so that the
+ * rankings (and so the recommendations made) are those of the original SimilarityMap and recommender. The
+ * original map held the similarities of each item in a HashMap, adding them as it visited the pairs of
+ * items (for each item id1 in the iteration order of DatasetReader.getItems(), each item id2 < id1 in the
+ * same order), and the original recommender ranked the neighbours in a TreeSet of ScoredThingDsc, which
+ * ranks tied neighbours in the order they are added - the iteration order of the HashMap. A HashMap visits
+ * its bins in order, and the entries of each bin in the order they were added, where the bin of an id is
+ * given by its (spread) hash code and the capacity of the map - the least power of two, of at least 16, for
+ * which the number of entries does not exceed the load factor of 0.75. So tied neighbours are ranked by bin,
+ * and then in the order in which the original map added them.
+ *
+ * The items of a map which is not built from a DatasetReader have no iteration order, so its tied
+ * neighbours are ranked in ascending order of ID.
+ */
+
+package alg.np.similarity;
+
+import java.util.Arrays;
+
+import util.IdDictionary;
+import util.reader.DatasetReader;
+
+class TieOrder
+{
+	static final TieOrder ASCENDING_ID = new TieOrder(); // ranks tied neighbours in ascending order of ID
+
+	private static final int MIN_CAPACITY = 16; // the initial capacity of a HashMap
+	private static final double LOAD_FACTOR = 0.75; // the load factor of a HashMap
+
+	private IdDictionary itemDictionary; // the item dictionary (null if tied neighbours are ranked in ascending order of ID)
+	private int[] positions; // the position of each item (by dense index) in the iteration order of the items
+
+	/**
+	 * constructor - creates a new TieOrder object which ranks tied neighbours in ascending order of ID
+	 */
+	private TieOrder()
+	{
+		itemDictionary = null;
+		positions = null;
+	}
+
+	/**
+	 * constructor - creates a new TieOrder object which ranks tied neighbours as the original recommender did
+	 * @param reader - dataset reader
+	 */
+	TieOrder(final DatasetReader reader)
+	{
+		itemDictionary = reader.getItemDictionary();
+		positions = new int[itemDictionary.getSize()];
+		Arrays.fill(positions, Integer.MAX_VALUE); // items which are rated but not described are never neighbours
+		int position = 0;
+		for(Integer id: reader.getItems().keySet())
+			positions[itemDictionary.getIndex(id)] = position++;
+	}
+
+	/**
+	 * @returns a negative number, zero or a positive number as the first neighbour is ranked above, with or
+	 * below the second, when their similarities to an item are equal
+	 * @param id - the numeric ID of the item
+	 * @param nneighbours - the number of neighbours of the item
+	 * @param id1 - the numeric ID of the first neighbour
+	 * @param id2 - the numeric ID of the second neighbour
+	 */
+	int compare(final int id, final int nneighbours, final int id1, final int id2)
+	{
+		if(itemDictionary == null || id1 == id2)
+			return Integer.compare(id1, id2);
+
+		// the bins of the neighbours
+		int capacity = MIN_CAPACITY;
+		while(nneighbours > capacity * LOAD_FACTOR)
+			capacity *= 2;
+		int bin1 = spread(id1) & (capacity - 1);
+		int bin2 = spread(id2) & (capacity - 1);
+		if(bin1 != bin2)
+			return Integer.compare(bin1, bin2);
+
+		// the order in which the pairs were visited - by the position of the higher id, then of the lower id
+		int cmp = Integer.compare(getPosition(Math.max(id, id1)), getPosition(Math.max(id, id2)));
+		if(cmp == 0)
+			cmp = Integer.compare(getPosition(Math.min(id, id1)), getPosition(Math.min(id, id2)));
+		return (cmp != 0) ? cmp : Integer.compare(id1, id2);
+	}
+
+	/**
+	 * @returns the position of an item in the iteration order of the items (Integer.MAX_VALUE if the item is not described)
+	 * @param id - the numeric ID of the item
+	 */
+	private int getPosition(final int id)
+	{
+		int index = itemDictionary.getIndex(id);
+		return (index >= 0 && index < positions.length) ? positions[index] : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @returns the hash of an id as spread by HashMap
+	 * @param id - the numeric ID
+	 */
+	private static int spread(final int id)
+	{
+		return id ^ (id >>> 16);
+	}
+}
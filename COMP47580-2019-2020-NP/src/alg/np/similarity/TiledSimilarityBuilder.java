@@ -0,0 +1,296 @@
+/**
+ * This class builds a SimilarityMap by evaluating the similarity metric for all pairs of items, as the
+ * SimilarityMap constructors do, but in an order which reuses the data of each item while it is in the
+ * cache. The items, in ascending order of id, are divided into blocks sized so that the data used by the
+ * metric for two blocks fits in the cache together, and the upper triangle of block pairs is processed
+ * one tile at a time: each item of the first block is compared with each item of the second block, so
+ * the data of the second block is read from the cache rather than memory. The metric is used only through
+ * getItemSimilarity(), so any SimilarityMetric can be used if the caller states whether its similarities are
+ * symmetric (the constructors which do not state it accept only the metrics known to SimilarityMap), and the
+ * map built is identical to that built by the SimilarityMap constructors. Tiles may be processed in parallel,
+ * in chunks which are merged into the map before the next chunk is computed.
+ */
+
+package alg.np.similarity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import alg.np.similarity.metric.GenomeMetric;
+import alg.np.similarity.metric.IncConfidenceMetric;
+import alg.np.similarity.metric.RatingMetric;
+import alg.np.similarity.metric.SimilarityMetric;
+import profile.GenomeMatrix;
+import util.reader.DatasetReader;
+
+public class TiledSimilarityBuilder
+{
+	private static final int CACHE_BYTES = 1 << 18; // the cache budget for the data of the two blocks of a tile (a typical per-core L2 cache)
+	private static final int MIN_BLOCK_SIZE = 8; // the minimum number of items per block
+	private static final int MAX_BLOCK_SIZE = 1024; // the maximum number of items per block
+	private static final int ITEM_BYTES = 64; // the estimated data used by a metric per item, if not known
+	private static final int RATING_BYTES = 12; // the data used by a rating metric per rating (an int id and a double value)
+
+	private DatasetReader reader; // dataset reader
+	private SimilarityMetric metric; // similarity metric
+	private int nThreads; // the number of worker threads
+	private int blockSize; // the number of items per block
+	private boolean symmetric; // true if the similarities are symmetric
+	private Integer[] itemIds; // the item ids in ascending order, boxed once so that no ids are boxed per pair
+
+	/**
+	 * constructor - creates a new TiledSimilarityBuilder object which processes the tiles sequentially,
+	 * with the block size chosen to fit the cache
+	 * @param reader - dataset reader
+	 * @param metric - similarity metric
+	 */
+	public TiledSimilarityBuilder(final DatasetReader reader, final SimilarityMetric metric)
+	{
+		this(reader, metric, 1);
+	}
+
+	/**
+	 * constructor - creates a new TiledSimilarityBuilder object, with the block size chosen to fit the cache
+	 * @param reader - dataset reader
+	 * @param metric - similarity metric
+	 * @param nThreads - the number of worker threads
+	 */
+	public TiledSimilarityBuilder(final DatasetReader reader, final SimilarityMetric metric, final int nThreads)
+	{
+		this(reader, metric, nThreads, getBlockSize(reader, metric));
+	}
+
+	/**
+	 * constructor - creates a new TiledSimilarityBuilder object
+	 * @param reader - dataset reader
+	 * @param metric - similarity metric
+	 * @param nThreads - the number of worker threads
+	 * @param blockSize - the number of items per block
+	 */
+	public TiledSimilarityBuilder(final DatasetReader reader, final SimilarityMetric metric, final int nThreads, final int blockSize)
+	{
+		this(reader, metric, nThreads, blockSize, SimilarityMap.isSymmetric(metric));
+	}
+
+	/**
+	 * constructor - creates a new TiledSimilarityBuilder object for any similarity metric - if the similarities
+	 * are symmetric, those greater than 0 are stored for both items of a pair; otherwise, those greater than 1
+	 * are stored (as the SimilarityMap constructors do for GenreMetric, GenomeMetric, RatingMetric and IncConfidenceMetric)
+	 * @param reader - dataset reader
+	 * @param metric - similarity metric
+	 * @param nThreads - the number of worker threads
+	 * @param blockSize - the number of items per block
+	 * @param symmetric - true if the similarities computed by the metric are symmetric
+	 */
+	public TiledSimilarityBuilder(final DatasetReader reader, final SimilarityMetric metric, final int nThreads, final int blockSize,
+			final boolean symmetric)
+	{
+		if(nThreads < 1)
+		{
+			System.out.println("Error - invalid number of threads");
+			System.exit(1);
+		}
+		if(blockSize < 1)
+		{
+			System.out.println("Error - invalid block size");
+			System.exit(1);
+		}
+
+		this.reader = reader;
+		this.metric = metric;
+		this.nThreads = nThreads;
+		this.blockSize = blockSize;
+		this.symmetric = symmetric;
+	}
+
+	/**
+	 * @returns the number of items per block
+	 */
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+
+	/**
+	 * @returns a new SimilarityMap containing the similarities between all items
+	 */
+	public SimilarityMap build()
+	{
+		SimilarityMap simMap = new SimilarityMap(0, new TieOrder(reader));
+
+		int[] sortedIds = SimilarityMap.getSortedIds(reader.getItems().keySet());
+		itemIds = new Integer[sortedIds.length];
+		for(int i = 0; i < sortedIds.length; i++)
+			itemIds[i] = sortedIds[i];
+		int nblocks = (itemIds.length + blockSize - 1) / blockSize;
+
+		if(nThreads == 1)
+		{
+			// each row of tiles is merged into the map as soon as it is computed
+			for(int bx = 0; bx < nblocks; bx++)
+			{
+				SimilarityBuffer buffer = new SimilarityBuffer();
+				for(int by = 0; by <= bx; by++)
+					computeTile(bx, by, buffer);
+				merge(simMap, buffer);
+			}
+		}
+		else
+		{
+			// the tiles, taken in rows of blocks, are computed in chunks of about SimilarityMap.CHUNK_PAIRS pairs
+			// (and at least one tile per worker), each chunk being merged into the map before the next is
+			// computed - so at most a chunk of similarities is buffered at once
+			ForkJoinPool pool = new ForkJoinPool(nThreads);
+			try {
+				int bx = 0, by = 0;
+				while(bx < nblocks) {
+					List<int[]> tiles = new ArrayList<int[]>();
+					long npairs = 0;
+					while(bx < nblocks && (tiles.size() < nThreads || npairs + getTilePairs(bx, by) <= SimilarityMap.CHUNK_PAIRS)) {
+						tiles.add(new int[] {bx, by});
+						npairs += getTilePairs(bx, by);
+						if(++by > bx) {
+							bx++;
+							by = 0;
+						}
+					}
+
+					// each worker collects its similarities in its own buffer
+					List<SimilarityBuffer> buffers = pool.invoke(new TileTask(tiles, 0, tiles.size()));
+
+					// merge the worker buffers into the map, releasing each buffer once merged
+					for(int b = 0; b < buffers.size(); b++)
+						merge(simMap, buffers.set(b, null));
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		simMap.compact();
+		return simMap;
+	}
+
+	/**
+	 * @returns the number of pairs of items in a tile
+	 * @param bx - the index of the first block
+	 * @param by - the index of the second block (no greater than bx)
+	 */
+	private long getTilePairs(final int bx, final int by)
+	{
+		long nx = Math.min((bx + 1) * blockSize, itemIds.length) - bx * blockSize;
+		return (by < bx) ? nx * blockSize : nx * (nx - 1) / 2;
+	}
+
+	/**
+	 * computes the similarities of a tile - those between the items of the first block and the items
+	 * of the second block with a lower id
+	 * @param bx - the index of the first block
+	 * @param by - the index of the second block (no greater than bx)
+	 * @param buffer - the buffer to which the similarities are added
+	 */
+	private void computeTile(final int bx, final int by, final SimilarityBuffer buffer)
+	{
+		int lo = bx * blockSize, hi = Math.min(lo + blockSize, itemIds.length);
+		for(int x = lo; x < hi; x++)
+			for(int y = by * blockSize; y < Math.min((by + 1) * blockSize, x); y++)
+			{
+				Integer id1 = itemIds[x], id2 = itemIds[y];
+				if(symmetric) {
+					double sim = metric.getItemSimilarity(id1, id2);
+					if(sim > 0) buffer.add(id1, id2, sim);
+				} else {
+					double sim = metric.getItemSimilarity(id1, id2);
+					if(sim > 1) buffer.add(id1, id2, sim);
+
+					sim = metric.getItemSimilarity(id2, id1);
+					if(sim > 1) buffer.add(id2, id1, sim);
+				}
+			}
+	}
+
+	/**
+	 * adds the similarities in a buffer to the map
+	 * @param simMap - the map
+	 * @param buffer - the buffer
+	 */
+	private void merge(final SimilarityMap simMap, final SimilarityBuffer buffer)
+	{
+		for(int i = 0; i < buffer.getSize(); i++) {
+			int id1 = buffer.getId1(i);
+			int id2 = buffer.getId2(i);
+			double sim = buffer.getSimilarity(i);
+			simMap.setSimilarity(id1, id2, sim);
+			if(symmetric) simMap.setSimilarity(id2, id1, sim);
+		}
+	}
+
+	/**
+	 * @returns the number of items per block for which the data used by a metric for two blocks fits in the
+	 * cache - the data per item is estimated from the dense genome vectors (GenomeMetric) or the mean number
+	 * of ratings per item (RatingMetric, IncConfidenceMetric)
+	 * @param reader - dataset reader
+	 * @param metric - similarity metric
+	 */
+	public static int getBlockSize(final DatasetReader reader, final SimilarityMetric metric)
+	{
+		long itemBytes = ITEM_BYTES;
+		GenomeMatrix matrix = reader.getItemGenomeMatrix();
+		if(metric instanceof GenomeMetric && matrix != null && matrix.getRowCount() > 0)
+			itemBytes = (long)matrix.getStride() * matrix.getFormat().getBytes();
+		else if((metric instanceof RatingMetric || metric instanceof IncConfidenceMetric) && !reader.getItemProfiles().isEmpty())
+		{
+			long nratings = 0;
+			for(int i = 0; i < reader.getItemDictionary().getSize(); i++)
+				if(reader.getItemProfileAt(i) != null)
+					nratings += reader.getItemProfileAt(i).getSize();
+			itemBytes = Math.max(ITEM_BYTES, RATING_BYTES * nratings / reader.getItemProfiles().size());
+		}
+
+		long blockSize = CACHE_BYTES / (2 * itemBytes);
+		return (int)Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, blockSize));
+	}
+
+	/**
+	 * A fork-join task which computes the similarities of the tiles [lo, hi) of a chunk
+	 */
+	private class TileTask extends RecursiveTask<List<SimilarityBuffer>>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final List<int[]> tiles; // the block indexes (bx, by) of the tiles of the chunk
+		private final int lo; // the first tile
+		private final int hi; // one past the last tile
+
+		TileTask(final List<int[]> tiles, final int lo, final int hi)
+		{
+			this.tiles = tiles;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected List<SimilarityBuffer> compute()
+		{
+			if(hi - lo > 1)
+			{
+				int mid = (lo + hi) >>> 1;
+				TileTask left = new TileTask(tiles, lo, mid);
+				TileTask right = new TileTask(tiles, mid, hi);
+				left.fork();
+				List<SimilarityBuffer> buffers = new ArrayList<SimilarityBuffer>(right.compute());
+				buffers.addAll(0, left.join());
+				return buffers;
+			}
+
+			List<SimilarityBuffer> buffers = new ArrayList<SimilarityBuffer>();
+			SimilarityBuffer buffer = new SimilarityBuffer();
+			if(lo < hi)
+				computeTile(tiles.get(lo)[0], tiles.get(lo)[1], buffer);
+			buffers.add(buffer);
+			return buffers;
+		}
+	}
+}
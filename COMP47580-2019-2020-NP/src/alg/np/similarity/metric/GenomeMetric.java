@@ -1,16 +1,24 @@
 /**
- * Compute the similarity between two items based on the Cosine between item genome scores
+ * Compute the similarity between two items based on the weighted Jaccard similarity between item genome scores
  */ 
 
 package alg.np.similarity.metric;
 
-import java.util.Set;
-
+import profile.GenomeMatrix;
+import profile.IntersectionVisitor;
 import profile.Profile;
 import util.reader.DatasetReader;
 
 public class GenomeMetric implements SimilarityMetric
 {
+	// the visitor of each thread, reused for every pair so that no visitor is allocated per pair
+	private static final ThreadLocal<WeightedJaccard> WEIGHTED_JACCARDS = new ThreadLocal<WeightedJaccard>() {
+		protected WeightedJaccard initialValue()
+		{
+			return new WeightedJaccard();
+		}
+	};
+
 	private DatasetReader reader; // dataset reader
 	
 	/**
@@ -29,16 +37,154 @@ public class GenomeMetric implements SimilarityMetric
 	 */
 	public double getItemSimilarity(final Integer X, final Integer Y)
 	{
-		// calculate similarity using weighted Jaccard
+		// calculate similarity using weighted Jaccard - over the dense genome vectors if both items have a score for every tag
+		GenomeMatrix matrix = reader.getItemGenomeMatrix();
+		int x = matrix.getRow(X), y = matrix.getRow(Y);
+		if(x >= 0 && y >= 0)
+			return getSimilarity(matrix, x, y);
+
 		Profile XGenome = reader.getItem(X).getGenomeScores();
 		Profile YGenome = reader.getItem(Y).getGenomeScores();
-		Set<Integer> commonIds = XGenome.getCommonIds(YGenome);
-		double num = 0, den = 0;
-		for(Integer id : commonIds)
+		WeightedJaccard sums = WEIGHTED_JACCARDS.get();
+		sums.num = 0;
+		sums.den = 0;
+		XGenome.intersect(YGenome, sums);
+		return (sums.den > 0 ) ? sums.num / sums.den : 0;
+	}
+
+	/**
+	 * computes the weighted Jaccard similarity between the dense genome vectors of two items - as 
+	 * min(x, y) + max(x, y) = x + y, the sum of the maximum scores is found from the sum of the 
+	 * minimum scores and the row sums, so only the minimum scores are summed. If the scores are
+	 * quantized, the similarity is computed from the quantized values (the scale cancels).
+	 * @param matrix - the genome matrix
+	 * @param x - the row of the first item
+	 * @param y - the row of the second item
+	 */
+	public static double getSimilarity(final GenomeMatrix matrix, final int x, final int y)
+	{
+		int length = matrix.getStride();
+		int offsetX = x * length, offsetY = y * length;
+
+		double num;
+		switch(matrix.getFormat())
+		{
+			case DOUBLE:
+				num = getMinSum(matrix.getDoubleScores(), offsetX, offsetY, length);
+				break;
+			case QUANTIZED16:
+				num = getMinSum(matrix.getShortScores(), offsetX, offsetY, length);
+				break;
+			case QUANTIZED8:
+				num = getMinSum(matrix.getByteScores(), offsetX, offsetY, length);
+				break;
+			default:
+				num = getMinSum(matrix.getScores(), offsetX, offsetY, length);
+		}
+
+		double den = matrix.getSum(x) + matrix.getSum(y) - num;
+		return (den > 0) ? num / den : 0;
+	}
+
+	/**
+	 * @returns the sum of the minimum scores of two vectors - the loop is unrolled over 
+	 * GenomeMatrix.VECTOR_LENGTH lanes with independent sums, so that the JIT compiler can 
+	 * vectorise the loads and minimums
+	 * @param scores - the scores
+	 * @param offsetX - the index of the first vector
+	 * @param offsetY - the index of the second vector
+	 * @param length - the length of the vectors (a multiple of GenomeMatrix.VECTOR_LENGTH)
+	 */
+	private static double getMinSum(final float[] scores, final int offsetX, final int offsetY, final int length)
+	{
+		double num0 = 0, num1 = 0, num2 = 0, num3 = 0, num4 = 0, num5 = 0, num6 = 0, num7 = 0;
+		for(int i = 0; i < length; i += GenomeMatrix.VECTOR_LENGTH)
+		{
+			num0 += Math.min(scores[offsetX + i], scores[offsetY + i]);
+			num1 += Math.min(scores[offsetX + i + 1], scores[offsetY + i + 1]);
+			num2 += Math.min(scores[offsetX + i + 2], scores[offsetY + i + 2]);
+			num3 += Math.min(scores[offsetX + i + 3], scores[offsetY + i + 3]);
+			num4 += Math.min(scores[offsetX + i + 4], scores[offsetY + i + 4]);
+			num5 += Math.min(scores[offsetX + i + 5], scores[offsetY + i + 5]);
+			num6 += Math.min(scores[offsetX + i + 6], scores[offsetY + i + 6]);
+			num7 += Math.min(scores[offsetX + i + 7], scores[offsetY + i + 7]);
+		}
+		return ((num0 + num1) + (num2 + num3)) + ((num4 + num5) + (num6 + num7));
+	}
+
+	/**
+	 * @returns the sum of the minimum scores of two vectors (see getMinSum(float[], ...))
+	 */
+	private static double getMinSum(final double[] scores, final int offsetX, final int offsetY, final int length)
+	{
+		double num0 = 0, num1 = 0, num2 = 0, num3 = 0, num4 = 0, num5 = 0, num6 = 0, num7 = 0;
+		for(int i = 0; i < length; i += GenomeMatrix.VECTOR_LENGTH)
+		{
+			num0 += Math.min(scores[offsetX + i], scores[offsetY + i]);
+			num1 += Math.min(scores[offsetX + i + 1], scores[offsetY + i + 1]);
+			num2 += Math.min(scores[offsetX + i + 2], scores[offsetY + i + 2]);
+			num3 += Math.min(scores[offsetX + i + 3], scores[offsetY + i + 3]);
+			num4 += Math.min(scores[offsetX + i + 4], scores[offsetY + i + 4]);
+			num5 += Math.min(scores[offsetX + i + 5], scores[offsetY + i + 5]);
+			num6 += Math.min(scores[offsetX + i + 6], scores[offsetY + i + 6]);
+			num7 += Math.min(scores[offsetX + i + 7], scores[offsetY + i + 7]);
+		}
+		return ((num0 + num1) + (num2 + num3)) + ((num4 + num5) + (num6 + num7));
+	}
+
+	/**
+	 * @returns the sum of the minimum quantized scores of two vectors (see getMinSum(float[], ...)) - the 
+	 * sums are exact
+	 */
+	private static double getMinSum(final char[] scores, final int offsetX, final int offsetY, final int length)
+	{
+		long num0 = 0, num1 = 0, num2 = 0, num3 = 0, num4 = 0, num5 = 0, num6 = 0, num7 = 0;
+		for(int i = 0; i < length; i += GenomeMatrix.VECTOR_LENGTH)
+		{
+			num0 += Math.min(scores[offsetX + i], scores[offsetY + i]);
+			num1 += Math.min(scores[offsetX + i + 1], scores[offsetY + i + 1]);
+			num2 += Math.min(scores[offsetX + i + 2], scores[offsetY + i + 2]);
+			num3 += Math.min(scores[offsetX + i + 3], scores[offsetY + i + 3]);
+			num4 += Math.min(scores[offsetX + i + 4], scores[offsetY + i + 4]);
+			num5 += Math.min(scores[offsetX + i + 5], scores[offsetY + i + 5]);
+			num6 += Math.min(scores[offsetX + i + 6], scores[offsetY + i + 6]);
+			num7 += Math.min(scores[offsetX + i + 7], scores[offsetY + i + 7]);
+		}
+		return num0 + num1 + num2 + num3 + num4 + num5 + num6 + num7;
+	}
+
+	/**
+	 * @returns the sum of the minimum quantized scores of two vectors (see getMinSum(float[], ...)) - the 
+	 * scores are unsigned, and the sums are exact
+	 */
+	private static double getMinSum(final byte[] scores, final int offsetX, final int offsetY, final int length)
+	{
+		long num0 = 0, num1 = 0, num2 = 0, num3 = 0, num4 = 0, num5 = 0, num6 = 0, num7 = 0;
+		for(int i = 0; i < length; i += GenomeMatrix.VECTOR_LENGTH)
+		{
+			num0 += Math.min(scores[offsetX + i] & 0xff, scores[offsetY + i] & 0xff);
+			num1 += Math.min(scores[offsetX + i + 1] & 0xff, scores[offsetY + i + 1] & 0xff);
+			num2 += Math.min(scores[offsetX + i + 2] & 0xff, scores[offsetY + i + 2] & 0xff);
+			num3 += Math.min(scores[offsetX + i + 3] & 0xff, scores[offsetY + i + 3] & 0xff);
+			num4 += Math.min(scores[offsetX + i + 4] & 0xff, scores[offsetY + i + 4] & 0xff);
+			num5 += Math.min(scores[offsetX + i + 5] & 0xff, scores[offsetY + i + 5] & 0xff);
+			num6 += Math.min(scores[offsetX + i + 6] & 0xff, scores[offsetY + i + 6] & 0xff);
+			num7 += Math.min(scores[offsetX + i + 7] & 0xff, scores[offsetY + i + 7] & 0xff);
+		}
+		return num0 + num1 + num2 + num3 + num4 + num5 + num6 + num7;
+	}
+
+	/**
+	 * accumulates the sums of the minimum and maximum scores over the common tags
+	 */
+	private static class WeightedJaccard implements IntersectionVisitor
+	{
+		private double num = 0, den = 0;
+
+		public void visit(final int id, final double value, final double otherValue)
 		{
-			num = num + Math.min(XGenome.getValue(id), YGenome.getValue(id));
-			den = den + Math.max(XGenome.getValue(id), YGenome.getValue(id));
+			num = num + Math.min(value, otherValue);
+			den = den + Math.max(value, otherValue);
 		}
-		return (den > 0 ) ? num / den : 0;
 	}
 }
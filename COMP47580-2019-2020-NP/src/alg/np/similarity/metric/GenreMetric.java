@@ -6,6 +6,7 @@ package alg.np.similarity.metric;
 
 import java.util.Set;
 
+import util.Item;
 import util.reader.DatasetReader;
 
 public class GenreMetric implements SimilarityMetric
@@ -29,10 +30,14 @@ public class GenreMetric implements SimilarityMetric
 	public double getItemSimilarity(final Integer X, final Integer Y)
 	{
 		// calculate similarity using overlap coefficient
+		Item itemX = reader.getItem(X);
+		Item itemY = reader.getItem(Y);
+		if(reader.hasGenreMasks() && itemX.hasGenreMask() && itemY.hasGenreMask())
+			return getSimilarity(itemX.getGenreMask(), itemY.getGenreMask());
 		
 		// get the genres sets for items X and Y
-		Set<String> genresX = reader.getItem(X).getGenres();
-		Set<String> genresY = reader.getItem(Y).getGenres();
+		Set<String> genresX = itemX.getGenres();
+		Set<String> genresY = itemY.getGenres();
 		
 		// get the number of common genres between items X and Y
 		int count = 0;
@@ -44,4 +49,15 @@ public class GenreMetric implements SimilarityMetric
 		int denom = Math.min(genresX.size(), genresY.size());
 		return (denom > 0 ) ? count * 1.0 / denom : 0;
 	}
+
+	/**
+	 * computes the overlap coefficient between the genre bitmasks of two items
+	 * @param maskX - the genre bitmask of the first item
+	 * @param maskY - the genre bitmask of the second item
+	 */
+	public static double getSimilarity(final long maskX, final long maskY)
+	{
+		int denom = Math.min(Long.bitCount(maskX), Long.bitCount(maskY));
+		return (denom > 0 ) ? Long.bitCount(maskX & maskY) * 1.0 / denom : 0;
+	}
 }
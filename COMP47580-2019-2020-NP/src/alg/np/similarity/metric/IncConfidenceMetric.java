@@ -4,15 +4,22 @@
 
 package alg.np.similarity.metric;
 
-import java.util.Map;
-import java.util.Set;
-
+import profile.IntersectionVisitor;
 import profile.Profile;
+import profile.ProfileStatistics;
 import util.reader.DatasetReader;
 
 public class IncConfidenceMetric implements SimilarityMetric
 {
-	private static double RATING_THRESHOLD = 4.0; // the threshold rating for liked items 
+	private static final double RATING_THRESHOLD = ProfileStatistics.LIKED_THRESHOLD; // the threshold rating for liked items 
+	// the visitor of each thread, reused for every pair so that no visitor is allocated per pair
+	private static final ThreadLocal<CoCounts> CO_COUNTS = new ThreadLocal<CoCounts>() {
+		protected CoCounts initialValue()
+		{
+			return new CoCounts();
+		}
+	};
+
 	private DatasetReader reader; // dataset reader
 
 	/**
@@ -30,34 +37,37 @@ public class IncConfidenceMetric implements SimilarityMetric
 	 * @param Y - the id of the second item
 	 */
 	public double getItemSimilarity(final Integer X, final Integer Y)
+	{
+		Profile Xinc = reader.getItemProfile(X);
+		Profile Yinc = reader.getItemProfile(Y);
+		int nX = Xinc.getSize();
+		int nY = Yinc.getSize();
+		CoCounts co = CO_COUNTS.get();
+		co.nXandY = 0;
+		co.CXAndY = 0;
+		co.CnXAndY = 0;
+		Xinc.intersect(Yinc, co);
+		ProfileStatistics Xstats = Xinc.getStatistics(RATING_THRESHOLD);
+		return getSimilarity(nX, Xstats.getLikedCount(), nY, co.nXandY, co.CXAndY, co.CnXAndY);
+	}
+
+	/**
+	 * computes the increase in confidence from the rating counts of two items
+	 * @param nX - the number of users who rated X
+	 * @param CX - the number of users who liked X
+	 * @param nY - the number of users who rated Y
+	 * @param nXandY - the number of users who rated both X and Y
+	 * @param CXAndY - the number of users who liked both X and Y
+	 * @param CnXAndY - the number of users who did not like X and liked Y
+	 */
+	public static double getSimilarity(final int nX, final int CX, final int nY, final int nXandY, final int CXAndY, final int CnXAndY)
 	{
 		// calculate similarity using conf(X => Y) / conf(!X => Y)
 		double supX = 0, supNotX = 0, supXAndY = 0, supNotXAndY = 0;
 		double confXY = 0, confNotXY = 0;
-		int CX = 0, CnX = 0, CXAndY = 0, CnXAndY = 0;
-		Map<Integer, Profile> itemProfiles = reader.getItemProfiles();
-		Profile Xinc = itemProfiles.get(X);
-		Profile Yinc = itemProfiles.get(Y);
-		int nX = Xinc.getSize();
-		int nY = Yinc.getSize();
-		int nXandY = Xinc.getCommonIds(Yinc).size();
 		int nXY = nX + nY - nXandY;
-		Set<Integer> X_ids = Xinc.getIds();
-		Set<Integer> XY_ids = Xinc.getCommonIds(Yinc);
-		for (Integer id : X_ids)
-		{
-			if (Xinc.getValue(id) >= RATING_THRESHOLD)
-				CX++;
-			else
-				CnX++;
-		}
+		int CnX = nX - CX;
 
-		for (Integer id : XY_ids) {
-			if (Xinc.getValue(id) >= RATING_THRESHOLD && Yinc.getValue(id) >= RATING_THRESHOLD)
-				CXAndY++;
-			else if (Xinc.getValue(id) < RATING_THRESHOLD && Yinc.getValue(id) >= RATING_THRESHOLD)
-				CnXAndY++;
-		}
 		supX = (nX > 0) ? (CX * 1.0) / nX : 0;
 		supNotX = (nX > 0) ? (CnX * 1.0) / nX : 0;
 		supXAndY = (nXY > 0) ? (CXAndY * 1.0) / nXY : 0;
@@ -65,6 +75,31 @@ public class IncConfidenceMetric implements SimilarityMetric
 		confXY = (supX > 0.0) ? supXAndY / supX : 0.0;
 		confNotXY = (supNotX > 0.0) ? supNotXAndY / supNotX : 0.0;
 		return (confNotXY > 0.0) ? confXY / confNotXY : 0.0;
+	}
+
+	/**
+	 * @returns true if a rating is counted as liked
+	 * @param rating - the rating
+	 */
+	public static boolean isLiked(final double rating)
+	{
+		return rating >= RATING_THRESHOLD;
+	}
 
+	/**
+	 * counts the users who rated both items, and those who liked Y having liked or not liked X
+	 */
+	private static class CoCounts implements IntersectionVisitor
+	{
+		private int nXandY = 0, CXAndY = 0, CnXAndY = 0;
+
+		public void visit(final int id, final double x, final double y)
+		{
+			nXandY++;
+			if (x >= RATING_THRESHOLD && y >= RATING_THRESHOLD)
+				CXAndY++;
+			else if (x < RATING_THRESHOLD && y >= RATING_THRESHOLD)
+				CnXAndY++;
+		}
 	}
 }
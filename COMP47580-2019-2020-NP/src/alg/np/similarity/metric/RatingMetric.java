@@ -4,14 +4,20 @@
 
 package alg.np.similarity.metric;
 
-import java.util.Map;
-import java.util.Set;
-
+import profile.IntersectionVisitor;
 import profile.Profile;
 import util.reader.DatasetReader;
 
 public class RatingMetric implements SimilarityMetric
 {
+	// the visitor of each thread, reused for every pair so that no visitor is allocated per pair
+	private static final ThreadLocal<DotProduct> DOT_PRODUCTS = new ThreadLocal<DotProduct>() {
+		protected DotProduct initialValue()
+		{
+			return new DotProduct();
+		}
+	};
+
 	private DatasetReader reader; // dataset reader
 
 	/**
@@ -31,17 +37,39 @@ public class RatingMetric implements SimilarityMetric
 	public double getItemSimilarity(final Integer X, final Integer Y)
 	{
 		// calculate similarity using Cosine
-		double dprod = 0;
-		Map<Integer, Profile> itemProfiles = reader.getItemProfiles();
-		Profile Xrating = itemProfiles.get(X);
-		Profile Yrating = itemProfiles.get(Y);
+		Profile Xrating = reader.getItemProfile(X);
+		Profile Yrating = reader.getItemProfile(Y);
 		double norX, norY;
 		norX = Xrating.getNorm();
 		norY = Yrating.getNorm();
-		Set<Integer> commonIds = Xrating.getCommonIds(Yrating);
-		for(Integer id : commonIds)
-			dprod = dprod + Xrating.getValue(id) * Yrating.getValue(id);
+		DotProduct dprod = DOT_PRODUCTS.get();
+		dprod.sum = 0;
+		Xrating.intersect(Yrating, dprod);
+		return getSimilarity(dprod.sum, norX, norY);
+	}
+
+	/**
+	 * computes the Cosine between the ratings of two items from their dot product and norms
+	 * @param dot - the dot product between the item ratings
+	 * @param norX - the norm of the ratings of the first item
+	 * @param norY - the norm of the ratings of the second item
+	 */
+	public static double getSimilarity(final double dot, final double norX, final double norY)
+	{
 		double den = (norX * norY);
-		return (den>0) ? dprod/den : 0;
+		return (den>0) ? dot/den : 0;
+	}
+
+	/**
+	 * accumulates the dot product over the users who rated both items
+	 */
+	private static class DotProduct implements IntersectionVisitor
+	{
+		private double sum = 0;
+
+		public void visit(final int id, final double value, final double otherValue)
+		{
+			sum += value * otherValue;
+		}
 	}
 }
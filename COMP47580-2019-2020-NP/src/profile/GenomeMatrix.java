@@ -0,0 +1,217 @@
+/**
+ * This class stores the genome scores of items as a dense matrix. Genome scores are dense (every item
+ * with genome scores has a score for every tag), so each item's scores are stored as a row of a single
+ * float[] in ascending order of tag ID, rather than as a Profile. Rows are padded with zeros to a multiple
+ * of VECTOR_LENGTH scores so that they can be processed in fixed-size vectors. Only items with a score
+ * for every tag are stored - the scores of any other item must be read from its Profile.
+ *
+ * The scores are stored in one of the ScoreFormats (float by default). Quantized scores are stored as 
+ * steps of getScale() / ScoreFormat.getLevels(), where the scale is the largest score, and the row sums
+ * are sums of the quantized values - the weighted Jaccard similarity is a ratio of sums, so it can be
+ * computed from the quantized values without scaling them.
+ */
+
+package profile;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import util.IdDictionary;
+import util.ScoreFormat;
+
+public class GenomeMatrix
+{
+	public static final int VECTOR_LENGTH = 8; // the row length is a multiple of this number of scores
+
+	private int[] tagIds; // the tag ID of each column, in ascending order
+	private IdDictionary rows; // maps the item ID of each row (in ascending order of item ID) to the row
+	private int stride; // the length of each row (the number of tags, rounded up to a multiple of VECTOR_LENGTH)
+	private ScoreFormat format; // the format in which the scores are stored
+	private double scale; // the largest score (the scale of quantized scores)
+	private double[] doubleScores; // the genome scores, row by row (DOUBLE format only)
+	private float[] scores; // the genome scores, row by row (FLOAT format only)
+	private char[] shortScores; // the quantized genome scores, row by row (QUANTIZED16 format only)
+	private byte[] byteScores; // the quantized genome scores, row by row (QUANTIZED8 format only)
+	private double[] sums; // the sum of the scores of each row (of the quantized values, if quantized)
+
+	/**
+	 * constructor - creates a new GenomeMatrix object
+	 * @param genomeScores - the genome score profile of each item
+	 */
+	public GenomeMatrix(final Map<Integer,Profile> genomeScores)
+	{
+		this(genomeScores, ScoreFormat.FLOAT);
+	}
+
+	/**
+	 * constructor - creates a new GenomeMatrix object which stores the scores in a given format
+	 * @param genomeScores - the genome score profile of each item
+	 * @param format - the format in which the scores are stored
+	 */
+	public GenomeMatrix(final Map<Integer,Profile> genomeScores, final ScoreFormat format)
+	{
+		this.format = format;
+
+		// the columns are all tags scored for any item
+		Set<Integer> tags = new HashSet<Integer>();
+		for(Profile p: genomeScores.values())
+			tags.addAll(p.getIds());
+		tagIds = new int[tags.size()];
+		int n = 0;
+		for(Integer tag: tags)
+			tagIds[n++] = tag;
+		Arrays.sort(tagIds);
+		stride = (tagIds.length + VECTOR_LENGTH - 1) / VECTOR_LENGTH * VECTOR_LENGTH;
+
+		// the rows are the items with a score for every tag - a profile holds each ID once,
+		// so a profile of the same size as the set of tags has a score for every tag
+		Set<Integer> ids = new HashSet<Integer>();
+		for(Profile p: genomeScores.values())
+			if(p.getSize() == tagIds.length && tagIds.length > 0)
+				ids.add(p.getId());
+		rows = new IdDictionary(ids);
+
+		scale = 0;
+		for(int row = 0; row < rows.getSize(); row++)
+		{
+			Profile p = genomeScores.get(rows.getId(row));
+			for(int i = 0; i < p.getSize(); i++)
+				scale = Math.max(scale, p.getValueAt(i));
+		}
+
+		int length = rows.getSize() * stride;
+		if(format == ScoreFormat.DOUBLE)
+			doubleScores = new double[length];
+		else if(format == ScoreFormat.FLOAT)
+			scores = new float[length];
+		else if(format == ScoreFormat.QUANTIZED16)
+			shortScores = new char[length];
+		else
+			byteScores = new byte[length];
+
+		sums = new double[rows.getSize()];
+		for(int row = 0; row < rows.getSize(); row++)
+		{
+			Profile p = genomeScores.get(rows.getId(row));
+			for(int i = 0; i < p.getSize(); i++)
+			{
+				int index = row * stride + i;
+				double value = Math.max(0, p.getValueAt(i)); // the weighted Jaccard similarity is defined for non-negative scores
+				if(format == ScoreFormat.DOUBLE)
+					sums[row] += doubleScores[index] = value;
+				else if(format == ScoreFormat.FLOAT)
+					sums[row] += scores[index] = (float)value;
+				else if(format == ScoreFormat.QUANTIZED16)
+					sums[row] += shortScores[index] = (char)format.quantize(value, scale);
+				else
+				{
+					int q = format.quantize(value, scale);
+					byteScores[index] = (byte)q;
+					sums[row] += q;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @returns the row of an item (or -1 if the item is not stored)
+	 * @param id - the numeric ID of the item
+	 */
+	public int getRow(final int id)
+	{
+		return rows.getIndex(id);
+	}
+
+	/**
+	 * @returns the number of rows
+	 */
+	public int getRowCount()
+	{
+		return rows.getSize();
+	}
+
+	/**
+	 * @returns the item ID of a row
+	 * @param row - the row
+	 */
+	public int getItemId(final int row)
+	{
+		return rows.getId(row);
+	}
+
+	/**
+	 * @returns the number of tags
+	 */
+	public int getTagCount()
+	{
+		return tagIds.length;
+	}
+
+	/**
+	 * @returns the length of each row, including padding - row i starts at index i * getStride() of getScores()
+	 */
+	public int getStride()
+	{
+		return stride;
+	}
+
+	/**
+	 * @returns the format in which the scores are stored
+	 */
+	public ScoreFormat getFormat()
+	{
+		return format;
+	}
+
+	/**
+	 * @returns the largest score (the scale of quantized scores)
+	 */
+	public double getScale()
+	{
+		return scale;
+	}
+
+	/**
+	 * @returns the sum of the scores of a row (of the quantized values, if the scores are quantized)
+	 * @param row - the row
+	 */
+	public double getSum(final int row)
+	{
+		return sums[row];
+	}
+
+	/**
+	 * @returns the genome scores, row by row (not a copy - must not be modified), or null if not stored as FLOAT
+	 */
+	public float[] getScores()
+	{
+		return scores;
+	}
+
+	/**
+	 * @returns the genome scores, row by row (not a copy - must not be modified), or null if not stored as DOUBLE
+	 */
+	public double[] getDoubleScores()
+	{
+		return doubleScores;
+	}
+
+	/**
+	 * @returns the quantized genome scores, row by row (not a copy - must not be modified), or null if not stored as QUANTIZED16
+	 */
+	public char[] getShortScores()
+	{
+		return shortScores;
+	}
+
+	/**
+	 * @returns the quantized genome scores, row by row (not a copy - must not be modified - the values are 
+	 * unsigned), or null if not stored as QUANTIZED8
+	 */
+	public byte[] getByteScores()
+	{
+		return byteScores;
+	}
+}
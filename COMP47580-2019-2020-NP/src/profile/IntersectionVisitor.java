@@ -0,0 +1,16 @@
+/**
+ * An interface to visit the IDs that two profiles have in common, together with their values in each profile
+ */
+
+package profile;
+
+public interface IntersectionVisitor 
+{
+	/**
+	 * called once for each ID common to two profiles, in ascending order of ID
+	 * @param id - the common ID
+	 * @param value - the value for the ID in the first profile
+	 * @param otherValue - the value for the ID in the second profile
+	 */
+	public void visit(final int id, final double value, final double otherValue);
+}
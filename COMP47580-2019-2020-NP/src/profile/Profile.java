@@ -1,25 +1,38 @@
 /**
  * This class is used to store (non-exhaustive list):
- * (a) the ratings assigned to items by a particular user or 
+ * (a) the ratings assigned to items by a particular user or
  * (b) the ratings assigned by users to a particular item or
  * (c) the similarities between a user and other users or
  * (d) the similarities between an item and other items or
  * (e) the genome scores for a particular item
+ *
+ * The data is stored in primitive arrays rather than a map: IDs are kept in ascending order
+ * in an int[] with the corresponding values in a parallel double[]. Values added out of order
+ * are appended and merged into the sorted arrays the next time the profile is read, and
+ * compact() trims the arrays once a profile has been loaded. A profile must be compacted
+ * before it is read by more than one thread.
  */
 
 package profile;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Set;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 public class Profile
 {
+	private static final int GALLOP_RATIO = 16; // the size ratio above which intersections use a galloping search
+
 	private Integer id; // the numeric ID of the profile
-	private Map<Integer,Double> dataMap; // stores either (a), (b), (c), (d) or (e) above
-	
+	private int[] ids; // the IDs of (a), (b), (c), (d) or (e) above - the first sortedSize are in ascending order
+	private double[] values; // the value corresponding to each ID
+	private int size; // the number of entries in the arrays
+	private int sortedSize; // the number of entries at the start of the arrays which are sorted and unique
+	private volatile ProfileStatistics statistics; // cached statistics over the values (null if not yet computed)
+
 	/**
 	 * constructor - creates a new Profile object
 	 * @param id
@@ -27,13 +40,31 @@ public class Profile
 	public Profile(final Integer id)
 	{
 		this.id = id;
-		this.dataMap = new HashMap<Integer,Double>();
+		this.ids = new int[4];
+		this.values = new double[4];
+		this.size = 0;
+		this.sortedSize = 0;
+	}
+
+	/**
+	 * constructor - creates a new Profile object with room for a given number of values, so that a profile
+	 * whose size is known is loaded without growing its arrays
+	 * @param id
+	 * @param capacity - the number of values
+	 */
+	public Profile(final Integer id, final int capacity)
+	{
+		this.id = id;
+		this.ids = new int[capacity];
+		this.values = new double[capacity];
+		this.size = 0;
+		this.sortedSize = 0;
 	}
 
 	/**
 	 * @returns the profile ID
 	 */
-	public Integer getId() 
+	public Integer getId()
 	{
 		return id;
 	}
@@ -43,36 +74,79 @@ public class Profile
 	 */
 	public int getSize()
 	{
-		return dataMap.size();
+		sort();
+		return size;
 	}
-	
+
 	/**
 	 * @returns true if the ID is in the profile
 	 */
 	public boolean contains(final Integer id)
 	{
-		return dataMap.containsKey(id);
+		return id != null && contains(id.intValue());
+	}
+
+	/**
+	 * @returns true if the ID is in the profile
+	 */
+	public boolean contains(final int id)
+	{
+		return indexOf(id) >= 0;
 	}
-	
+
 	/**
 	 * @returns the value for the ID (or null if ID is not in profile)
 	 */
 	public Double getValue(final Integer id)
 	{
-		return dataMap.get(id);
+		int index = (id != null) ? indexOf(id.intValue()) : -1;
+		return (index >= 0) ? Double.valueOf(values[index]) : null;
 	}
 
 	/**
-	 * @returns the mean value over all values in the profile
+	 * @returns the value for the ID (or defaultValue if ID is not in profile)
 	 */
-	public double getMeanValue()
+	public double getValue(final int id, final double defaultValue)
 	{
-		double total = 0;
+		int index = indexOf(id);
+		return (index >= 0) ? values[index] : defaultValue;
+	}
 
-		for(Double r: dataMap.values())
-			total += r.doubleValue();
+	/**
+	 * @returns the index of the ID in the profile (or a negative number if ID is not in profile)
+	 */
+	public int indexOf(final int id)
+	{
+		sort();
+		return Arrays.binarySearch(ids, 0, size, id);
+	}
 
-		return getSize() > 0 ? total / getSize() : 0;
+	/**
+	 * @returns the ID at an index - IDs are stored in ascending order
+	 * @param index - a value between 0 and getSize() - 1
+	 */
+	public int getIdAt(final int index)
+	{
+		sort();
+		return ids[index];
+	}
+
+	/**
+	 * @returns the value at an index
+	 * @param index - a value between 0 and getSize() - 1
+	 */
+	public double getValueAt(final int index)
+	{
+		sort();
+		return values[index];
+	}
+
+	/**
+	 * @returns the mean value over all values in the profile
+	 */
+	public double getMeanValue()
+	{
+		return getStatistics().getMean();
 	}
 
 	/**
@@ -80,61 +154,340 @@ public class Profile
 	 */
 	public double getNorm()
 	{
-		double sumsq = 0;
+		return getStatistics().getNorm();
+	}
 
-		for(Double r: dataMap.values())
-			sumsq += Math.pow(r.doubleValue(), 2);
+	/**
+	 * @returns the statistics over all values in the profile, counting values of at least
+	 * ProfileStatistics.LIKED_THRESHOLD as liked
+	 */
+	public ProfileStatistics getStatistics()
+	{
+		return getStatistics(ProfileStatistics.LIKED_THRESHOLD);
+	}
 
-		return Math.sqrt(sumsq);
+	/**
+	 * @returns the statistics over all values in the profile - these are cached until the profile is next modified
+	 * @param threshold - the threshold value for liked items
+	 */
+	public ProfileStatistics getStatistics(final double threshold)
+	{
+		ProfileStatistics stats = statistics;
+		if(stats == null || stats.getThreshold() != threshold)
+		{
+			sort();
+			stats = new ProfileStatistics(values, size, threshold);
+			statistics = stats;
+		}
+		return stats;
 	}
-	
+
 	/**
-	 * @returns the set of IDs in the profile
+	 * @returns the set of IDs in the profile (a read-only view, iterated in ascending order)
 	 */
 	public Set<Integer> getIds()
 	{
-		return dataMap.keySet();
+		sort();
+
+		return new AbstractSet<Integer>() {
+			@Override
+			public Iterator<Integer> iterator()
+			{
+				return new Iterator<Integer>() {
+					private int next = 0;
+
+					public boolean hasNext()
+					{
+						return next < size;
+					}
+
+					public Integer next()
+					{
+						if(next >= size)
+							throw new NoSuchElementException();
+						return getIdAt(next++);
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(final Object o)
+			{
+				return (o instanceof Integer) && Profile.this.contains(((Integer)o).intValue());
+			}
+
+			@Override
+			public int size()
+			{
+				return getSize();
+			}
+		};
 	}
-	
+
 	/**
 	 * @returns a set of IDs that two profiles have in common
 	 */
 	public Set<Integer> getCommonIds(final Profile other)
 	{
-		Set<Integer> common = new HashSet<Integer>();
-		
-		for(Integer id: getIds())
-			if(other.contains(id))
+		final Set<Integer> common = new HashSet<Integer>();
+
+		intersect(other, new IntersectionVisitor() {
+			public void visit(final int id, final double value, final double otherValue)
+			{
 				common.add(id);
-	
+			}
+		});
+
 		return common;
 	}
 
+	/**
+	 * @returns the number of IDs that two profiles have in common
+	 */
+	public int getCommonSize(final Profile other)
+	{
+		sort();
+		other.sort();
+
+		int count = 0;
+		int i = 0, j = 0;
+		while(i < size && j < other.size)
+		{
+			int id1 = ids[i], id2 = other.ids[j];
+			if(id1 < id2)
+				i++;
+			else if(id1 > id2)
+				j++;
+			else
+			{
+				count++;
+				i++;
+				j++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * visits the IDs that two profiles have in common, in ascending order of ID, without allocating -
+	 * a linear merge is used for profiles of similar size, otherwise each ID of the smaller profile 
+	 * is located in the larger profile using a galloping search
+	 * @param other - the second profile
+	 * @param visitor - called with each common ID, its value in this profile and its value in the other profile
+	 */
+	public void intersect(final Profile other, final IntersectionVisitor visitor)
+	{
+		sort();
+		other.sort();
+
+		if(size * GALLOP_RATIO < other.size)
+			gallop(this, other, visitor, false);
+		else if(other.size * GALLOP_RATIO < size)
+			gallop(other, this, visitor, true);
+		else
+		{
+			int i = 0, j = 0;
+			while(i < size && j < other.size)
+			{
+				int id1 = ids[i], id2 = other.ids[j];
+				if(id1 < id2)
+					i++;
+				else if(id1 > id2)
+					j++;
+				else
+					visitor.visit(id1, values[i++], other.values[j++]);
+			}
+		}
+	}
+
+	/**
+	 * visits the common IDs by locating each ID of the small profile in the large profile
+	 * @param small - the smaller profile
+	 * @param large - the larger profile
+	 * @param visitor - the visitor
+	 * @param swapped - true if the small profile is the second profile of the intersection
+	 */
+	private static void gallop(final Profile small, final Profile large, final IntersectionVisitor visitor, final boolean swapped)
+	{
+		int lo = 0;
+		for(int i = 0; i < small.size && lo < large.size; i++)
+		{
+			int id = small.ids[i];
+
+			// double the step until the ID is passed, then binary search the last step
+			int step = 1;
+			int hi = lo;
+			while(hi < large.size && large.ids[hi] < id)
+			{
+				lo = hi + 1;
+				hi = hi + step;
+				step <<= 1;
+			}
+
+			int index = Arrays.binarySearch(large.ids, lo, Math.min(hi + 1, large.size), id);
+			if(index >= 0)
+			{
+				if(swapped)
+					visitor.visit(id, large.values[index], small.values[i]);
+				else
+					visitor.visit(id, small.values[i], large.values[index]);
+				lo = index + 1;
+			}
+			else
+				lo = -index - 1;
+		}
+	}
+
 	/**
 	 * @param the ID to be added to the profile
 	 * @param the corresponding value
 	 */
 	public void addValue(final Integer id, final Double value)
 	{
-		dataMap.put(id, value);
+		addValue(id.intValue(), value.doubleValue());
+	}
+
+	/**
+	 * @param the ID to be added to the profile
+	 * @param the corresponding value
+	 */
+	public void addValue(final int id, final double value)
+	{
+		statistics = null;
+
+		// replace an existing value in place, if the profile is sorted
+		if(sortedSize == size && size > 0 && id <= ids[size - 1])
+		{
+			int index = Arrays.binarySearch(ids, 0, size, id);
+			if(index >= 0)
+			{
+				values[index] = value;
+				return;
+			}
+		}
+
+		if(size == ids.length)
+		{
+			int capacity = size + (size >> 1) + 1;
+			ids = Arrays.copyOf(ids, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		// appending in ascending order keeps the profile sorted
+		boolean inOrder = (sortedSize == size) && (size == 0 || id > ids[size - 1]);
+		ids[size] = id;
+		values[size] = value;
+		size++;
+		if(inOrder)
+			sortedSize = size;
+	}
+
+	/**
+	 * removes an ID from the profile
+	 * @param the ID to be removed
+	 * @returns true if the ID was in the profile
+	 */
+	public boolean removeValue(final int id)
+	{
+		int index = indexOf(id);
+		if(index < 0)
+			return false;
+
+		statistics = null;
+		System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+		System.arraycopy(values, index + 1, values, index, size - index - 1);
+		size--;
+		sortedSize--;
+		return true;
 	}
-	
+
+	/**
+	 * sorts the profile and trims the arrays to the profile size - called once a profile has been loaded
+	 */
+	public void compact()
+	{
+		sort();
+
+		if(ids.length != size)
+		{
+			ids = Arrays.copyOf(ids, size);
+			values = Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * merges any values appended out of order into the sorted part of the profile -
+	 * where an ID was added more than once, the last value added is kept
+	 */
+	private void sort()
+	{
+		if(sortedSize == size)
+			return;
+
+		// sort the unsorted tail by ID and then by insertion order
+		int tailSize = size - sortedSize;
+		long[] keys = new long[tailSize];
+		for(int i = 0; i < tailSize; i++)
+			keys[i] = ((long)ids[sortedSize + i] << 32) | i;
+		Arrays.sort(keys);
+
+		int[] tailIds = new int[tailSize];
+		double[] tailValues = new double[tailSize];
+		int n = 0;
+		for(int i = 0; i < tailSize; i++)
+		{
+			int tailId = (int)(keys[i] >> 32);
+			double tailValue = values[sortedSize + (int)(keys[i] & 0xffffffffL)];
+			if(n > 0 && tailIds[n - 1] == tailId)
+				tailValues[n - 1] = tailValue; // a later value for the same ID
+			else
+			{
+				tailIds[n] = tailId;
+				tailValues[n] = tailValue;
+				n++;
+			}
+		}
+
+		// merge the sorted head with the sorted tail - the tail was added later, so wins on equal IDs
+		int[] mergedIds = new int[sortedSize + n];
+		double[] mergedValues = new double[sortedSize + n];
+		int i = 0, j = 0, m = 0;
+		while(i < sortedSize || j < n)
+		{
+			if(j == n || (i < sortedSize && ids[i] < tailIds[j]))
+			{
+				mergedIds[m] = ids[i];
+				mergedValues[m++] = values[i++];
+			}
+			else
+			{
+				if(i < sortedSize && ids[i] == tailIds[j])
+					i++;
+				mergedIds[m] = tailIds[j];
+				mergedValues[m++] = tailValues[j++];
+			}
+		}
+
+		ids = mergedIds;
+		values = mergedValues;
+		size = m;
+		sortedSize = m;
+	}
+
 	/**
 	 * @returns a string representation of this object
 	 */
 	@Override
 	public String toString()
 	{
-		StringBuffer buf = new StringBuffer();		
-		
-		for(Iterator<Map.Entry<Integer,Double>> it = dataMap.entrySet().iterator(); it.hasNext(); ) 
-		{
-			Map.Entry<Integer,Double> entry = (Map.Entry<Integer,Double>)it.next();
-			Integer id = entry.getKey();
-			Double value = entry.getValue();
-			buf.append(new String(getId() + " " + id + " " + value + "\n"));
-		}
-		
+		sort();
+
+		StringBuffer buf = new StringBuffer();
+
+		for(int i = 0; i < size; i++)
+			buf.append(new String(getId() + " " + ids[i] + " " + values[i] + "\n"));
+
 		return buf.toString();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,99 @@
+/**
+ * This class stores summary statistics over the values of a profile (e.g. the ratings received by an item).
+ * Statistics are computed once and cached by the profile until the profile is next modified.
+ */
+
+package profile;
+
+public class ProfileStatistics 
+{
+	public static final double LIKED_THRESHOLD = 4.0; // the default threshold value for liked items
+
+	private final int count; // the number of values
+	private final double sum; // the sum of the values
+	private final double norm; // the norm of the values
+	private final double threshold; // the threshold used to count the liked values
+	private final int likedCount; // the number of values greater than or equal to the threshold
+
+	/**
+	 * constructor - creates a new ProfileStatistics object
+	 * @param values - the profile values
+	 * @param size - the number of values
+	 * @param threshold - the threshold used to count the liked values
+	 */
+	ProfileStatistics(final double[] values, final int size, final double threshold)
+	{
+		double sum = 0, sumsq = 0;
+		int likedCount = 0;
+
+		for(int i = 0; i < size; i++)
+		{
+			sum += values[i];
+			sumsq += Math.pow(values[i], 2);
+			if(values[i] >= threshold)
+				likedCount++;
+		}
+
+		this.count = size;
+		this.sum = sum;
+		this.norm = Math.sqrt(sumsq);
+		this.threshold = threshold;
+		this.likedCount = likedCount;
+	}
+
+	/**
+	 * @returns the number of values
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * @returns the sum of the values
+	 */
+	public double getSum()
+	{
+		return sum;
+	}
+
+	/**
+	 * @returns the mean of the values
+	 */
+	public double getMean()
+	{
+		return count > 0 ? sum / count : 0;
+	}
+
+	/**
+	 * @returns the norm of the values
+	 */
+	public double getNorm()
+	{
+		return norm;
+	}
+
+	/**
+	 * @returns the threshold used to count the liked values
+	 */
+	public double getThreshold()
+	{
+		return threshold;
+	}
+
+	/**
+	 * @returns the number of values greater than or equal to the threshold
+	 */
+	public int getLikedCount()
+	{
+		return likedCount;
+	}
+
+	/**
+	 * @returns the number of values less than the threshold
+	 */
+	public int getNotLikedCount()
+	{
+		return count - likedCount;
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * This class maps external (e.g. MovieLens) ids, which may have large gaps, to dense indexes 0..n-1, so
+ * that data can be stored in plain arrays indexed by dense index rather than in maps keyed by boxed ids.
+ * The ids given when the dictionary is created are indexed in ascending order; ids added later are
+ * indexed in the order added. An id is translated to its index by a direct lookup table, so no hashing
+ * or boxing is required (ids too large for the table are held in a map).
+ */
+
+package util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+public class IdDictionary
+{
+	private static final int MAX_TABLE_SIZE = 1 << 24; // ids of this value or more are held in the overflow map
+
+	private int[] ids; // the id of each index
+	private int size; // the number of ids
+	private int[] table; // the index of each id below MAX_TABLE_SIZE (-1 if the id is not in the dictionary)
+	private Map<Integer,Integer> overflow; // the index of each id of MAX_TABLE_SIZE or more (or negative)
+
+	/**
+	 * constructor - creates a new IdDictionary object
+	 * @param idSet - the ids to index, in any order
+	 */
+	public IdDictionary(final Collection<Integer> idSet)
+	{
+		ids = new int[Math.max(idSet.size(), 16)];
+		for(Integer id: idSet)
+			ids[size++] = id;
+		Arrays.sort(ids, 0, size);
+
+		int maxId = -1;
+		for(int i = 0; i < size; i++)
+			if(ids[i] >= 0 && ids[i] < MAX_TABLE_SIZE)
+				maxId = Math.max(maxId, ids[i]);
+		table = new int[maxId + 1];
+		Arrays.fill(table, -1);
+		overflow = new HashMap<Integer,Integer>();
+		for(int i = 0; i < size; i++)
+			put(ids[i], i);
+	}
+
+	/**
+	 * @returns the number of ids
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * @returns the index of an id (or -1 if the id is not in the dictionary)
+	 * @param id - the id
+	 */
+	public int getIndex(final int id)
+	{
+		if(id >= 0 && id < table.length)
+			return table[id];
+		if(id >= 0 && id < MAX_TABLE_SIZE)
+			return -1;
+
+		Integer index = overflow.get(id);
+		return (index != null) ? index : -1;
+	}
+
+	/**
+	 * @returns the id of an index
+	 * @param index - the index
+	 */
+	public int getId(final int index)
+	{
+		return ids[index];
+	}
+
+	/**
+	 * adds an id to the dictionary, if not already present
+	 * @returns the index of the id
+	 * @param id - the id
+	 */
+	public int add(final int id)
+	{
+		int index = getIndex(id);
+		if(index >= 0)
+			return index;
+
+		if(size == ids.length)
+			ids = Arrays.copyOf(ids, size * 2);
+		ids[size] = id;
+		put(id, size);
+		return size++;
+	}
+
+	/**
+	 * stores the index of an id
+	 * @param id - the id
+	 * @param index - the index
+	 */
+	private void put(final int id, final int index)
+	{
+		if(id >= 0 && id < MAX_TABLE_SIZE)
+		{
+			if(id >= table.length)
+			{
+				int length = table.length;
+				table = Arrays.copyOf(table, Math.min(Math.max(id + 1, length * 2), MAX_TABLE_SIZE));
+				Arrays.fill(table, length, table.length, -1);
+			}
+			table[id] = index;
+		}
+		else
+			overflow.put(id, index);
+	}
+}
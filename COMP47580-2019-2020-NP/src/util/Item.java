@@ -4,6 +4,7 @@
 
 package util;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -15,6 +16,8 @@ public class Item
 	private String name; // the name of the item
 	private Set<String> genres; // a hash set containing genres
 	private Profile genomeScores; // a profile with genome scores
+	private long genreMask; // a bitmask of the genres, with a bit assigned to each genre by the dataset reader
+	private boolean genreMaskValid; // true if the genre bitmask represents the current genres
 	
 	/**
 	 * constructor - creates a new Item object
@@ -40,7 +43,7 @@ public class Item
 	{
 		this.id = id;
 		this.name = name;
-		this.genres = genres;
+		this.genres = new HashSet<String>(genres);
 		this.genomeScores = genomeScores;
 	}
 	
@@ -73,17 +76,40 @@ public class Item
 	}
 
 	/**
-	 * @return the genres
+	 * @return the genres (a read-only view - the genres are changed using setGenres())
 	 */
 	public Set<String> getGenres() {
-		return genres;
+		return Collections.unmodifiableSet(genres);
 	}
 
 	/**
-	 * @param genres the genres to set
+	 * @param genres the genres to set - the genre bitmask no longer represents the genres, so it is invalidated
 	 */
 	public void setGenres(Set<String> genres) {
-		this.genres = genres;
+		this.genres = new HashSet<String>(genres);
+		this.genreMaskValid = false;
+	}
+
+	/**
+	 * @return the genre bitmask (valid only if hasGenreMask() is true)
+	 */
+	public long getGenreMask() {
+		return genreMask;
+	}
+
+	/**
+	 * @param genreMask the genre bitmask to set - it must represent the current genres
+	 */
+	public void setGenreMask(long genreMask) {
+		this.genreMask = genreMask;
+		this.genreMaskValid = true;
+	}
+
+	/**
+	 * @return true if the genre bitmask represents the current genres (i.e. it has been set since the genres were last set)
+	 */
+	public boolean hasGenreMask() {
+		return genreMaskValid;
 	}
 
 	/**
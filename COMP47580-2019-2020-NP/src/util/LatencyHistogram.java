@@ -0,0 +1,121 @@
+/**
+ * This class records latencies in a histogram of logarithmic buckets, so that percentiles can be reported
+ * without storing each latency. Latencies below 64 microseconds are recorded exactly; above this, each power
+ * of two is divided into 32 buckets, so a percentile is reported to within about 3%. Latencies can be
+ * recorded and read concurrently by any number of threads.
+ */
+
+package util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 5; // each power of two is divided into 2^SUB_BUCKET_BITS buckets
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // the number of buckets per power of two
+	private static final int MAX_EXPONENT = 40; // latencies of 2^MAX_EXPONENT microseconds or more are recorded in the last bucket
+
+	private AtomicLongArray counts; // the number of latencies recorded in each bucket
+	private AtomicLong count = new AtomicLong(); // the number of latencies recorded
+	private AtomicLong max = new AtomicLong(); // the maximum latency recorded (microseconds)
+
+	/**
+	 * constructor - creates a new LatencyHistogram object
+	 */
+	public LatencyHistogram()
+	{
+		counts = new AtomicLongArray(getBucket(Long.MAX_VALUE) + 1);
+	}
+
+	/**
+	 * records a latency
+	 * @param nanos - the latency (nanoseconds)
+	 */
+	public void record(final long nanos)
+	{
+		long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+		counts.incrementAndGet(getBucket(micros));
+		count.incrementAndGet();
+
+		long current = max.get();
+		while(micros > current && !max.compareAndSet(current, micros))
+			current = max.get();
+	}
+
+	/**
+	 * @returns the number of latencies recorded
+	 */
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 * @returns the maximum latency recorded (microseconds)
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * @returns the latency below which a percentage of the latencies recorded fall (microseconds) - the
+	 * upper bound of the bucket containing the percentile, or 0 if no latencies have been recorded
+	 * @param percentile - the percentage (0 to 100)
+	 */
+	public long getPercentile(final double percentile)
+	{
+		long total = 0;
+		for(int b = 0; b < counts.length(); b++)
+			total += counts.get(b);
+		if(total == 0)
+			return 0;
+
+		long rank = Math.max(1, (long)Math.ceil(percentile / 100 * total));
+		long sum = 0;
+		for(int b = 0; b < counts.length(); b++)
+		{
+			sum += counts.get(b);
+			if(sum >= rank)
+				return Math.min(getUpperBound(b), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * @returns the bucket of a latency
+	 * @param micros - the latency (microseconds)
+	 */
+	private static int getBucket(final long micros)
+	{
+		if(micros < 2 * SUB_BUCKETS)
+			return (int)micros;
+
+		int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT); // at least SUB_BUCKET_BITS + 1
+		if(exponent == MAX_EXPONENT)
+			return 2 * SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+		int shift = exponent - SUB_BUCKET_BITS;
+		return 2 * SUB_BUCKETS + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + (int)((micros >> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * @returns the largest latency recorded in a bucket (microseconds)
+	 * @param bucket - the bucket
+	 */
+	private static long getUpperBound(final int bucket)
+	{
+		if(bucket < 2 * SUB_BUCKETS)
+			return bucket;
+
+		int exponent = (bucket - 2 * SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+		if(exponent >= MAX_EXPONENT)
+			return Long.MAX_VALUE;
+
+		int shift = exponent - SUB_BUCKET_BITS;
+		long subBucket = (bucket - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
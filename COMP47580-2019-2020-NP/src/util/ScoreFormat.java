@@ -0,0 +1,115 @@
+/**
+ * The formats in which scores (genome relevances and similarities) can be stored. Lower precision formats
+ * take less memory, so more scores fit in the cache, at the cost of an error in each score:
+ * - DOUBLE: 8 bytes per score, exact
+ * - FLOAT: 4 bytes per score, a relative error of at most 2^-24 (about 6e-8)
+ * - QUANTIZED16: 2 bytes per score - a score in [0, scale] is stored as one of 65535 equal steps, an
+ *   error of at most scale / 131070 (about 7.6e-6 of the scale)
+ * - QUANTIZED8: 1 byte per score - a score in [0, scale] is stored as one of 255 equal steps, an error
+ *   of at most scale / 510 (about 0.002 of the scale)
+ * The scale of a quantized score is chosen by the structure storing it (e.g. the largest score stored).
+ */
+
+package util;
+
+public enum ScoreFormat
+{
+	DOUBLE(8, 0),
+	FLOAT(4, 0),
+	QUANTIZED16(2, 65535),
+	QUANTIZED8(1, 255);
+
+	private final int bytes; // the number of bytes per score
+	private final int levels; // the largest quantized value (0 if the format is not quantized)
+
+	/**
+	 * constructor - creates a new ScoreFormat
+	 * @param bytes - the number of bytes per score
+	 * @param levels - the largest quantized value (0 if the format is not quantized)
+	 */
+	private ScoreFormat(final int bytes, final int levels)
+	{
+		this.bytes = bytes;
+		this.levels = levels;
+	}
+
+	/**
+	 * @returns the number of bytes per score
+	 */
+	public int getBytes()
+	{
+		return bytes;
+	}
+
+	/**
+	 * @returns true if scores are quantized
+	 */
+	public boolean isQuantized()
+	{
+		return levels > 0;
+	}
+
+	/**
+	 * @returns the largest quantized value (0 if the format is not quantized)
+	 */
+	public int getLevels()
+	{
+		return levels;
+	}
+
+	/**
+	 * @returns the maximum error of a score stored in this format
+	 * @param scale - the largest score which can be stored (the scale of a quantized score)
+	 */
+	public double getMaxError(final double scale)
+	{
+		switch(this)
+		{
+			case FLOAT:
+				return scale * Math.pow(2, -24);
+			case QUANTIZED16:
+			case QUANTIZED8:
+				return scale / (2.0 * levels);
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * @returns the quantized value of a score (0 to getLevels()) - the nearest step, clamped to the scale
+	 * @param score - the score
+	 * @param scale - the largest score which can be stored
+	 */
+	public int quantize(final double score, final double scale)
+	{
+		if(scale <= 0)
+			return 0;
+		long q = Math.round(score / scale * levels);
+		return (int)Math.max(0, Math.min(levels, q));
+	}
+
+	/**
+	 * @returns the score of a quantized value
+	 * @param q - the quantized value
+	 * @param scale - the largest score which can be stored
+	 */
+	public double dequantize(final int q, final double scale)
+	{
+		return q * scale / levels;
+	}
+
+	/**
+	 * @returns the format with a name, ignoring case (e.g. "float" or "quantized8")
+	 * @param name - the name of the format
+	 */
+	public static ScoreFormat forName(final String name)
+	{
+		for(ScoreFormat format: values())
+			if(format.name().equalsIgnoreCase(name))
+				return format;
+
+		System.out.println("Error - invalid score format \"" + name + "\"");
+		System.exit(1);
+		return null;
+	}
+}
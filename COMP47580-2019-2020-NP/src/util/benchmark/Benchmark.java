@@ -0,0 +1,119 @@
+/**
+ * A micro-benchmark: a batch of operations which is timed over a number of warmup and measurement
+ * iterations. Each iteration calls setup() (untimed) and then run() (timed), and the time and the
+ * bytes allocated by the calling thread are reported per operation. Results computed by run() should
+ * be passed to consume() so that the JIT compiler cannot eliminate the work as dead code.
+ */
+
+package util.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+public abstract class Benchmark
+{
+	private static volatile long sink; // receives the results consumed, so that they are not dead code
+
+	private String name; // the name of the benchmark
+	private boolean singleThreaded; // true if all work is done by the calling thread (so that its allocation can be measured)
+
+	/**
+	 * constructor - creates a new Benchmark object
+	 * @param name - the name of the benchmark
+	 * @param singleThreaded - true if all work is done by the calling thread
+	 */
+	public Benchmark(final String name, final boolean singleThreaded)
+	{
+		this.name = name;
+		this.singleThreaded = singleThreaded;
+	}
+
+	/**
+	 * @returns the name of the benchmark
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * prepares an iteration - the time taken is not measured
+	 */
+	protected void setup()
+	{
+	}
+
+	/**
+	 * runs an iteration
+	 * @returns the number of operations performed
+	 */
+	protected abstract long run();
+
+	/**
+	 * consumes a result computed by the benchmark
+	 * @param result - the result
+	 */
+	protected static void consume(final Object result)
+	{
+		sink += (result != null) ? result.hashCode() : 0;
+	}
+
+	/**
+	 * consumes a result computed by the benchmark
+	 * @param result - the result
+	 */
+	protected static void consume(final double result)
+	{
+		sink += Double.doubleToRawLongBits(result);
+	}
+
+	/**
+	 * runs the benchmark
+	 * @returns the results of the measurement iterations
+	 * @param warmupIterations - the number of iterations run before measuring (to allow the code to be compiled)
+	 * @param iterations - the number of iterations measured
+	 */
+	public BenchmarkResult measure(final int warmupIterations, final int iterations)
+	{
+		if(warmupIterations < 0 || iterations < 1)
+		{
+			System.out.println("Error - invalid number of iterations");
+			System.exit(1);
+		}
+
+		for(int i = 0; i < warmupIterations; i++)
+		{
+			setup();
+			run();
+		}
+
+		// allocation is measured per thread, so only if all the work is done by this thread
+		com.sun.management.ThreadMXBean allocBean = null;
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(singleThreaded && bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported())
+		{
+			allocBean = (com.sun.management.ThreadMXBean)bean;
+			allocBean.setThreadAllocatedMemoryEnabled(true);
+		}
+
+		long ops = 0;
+		double[] nsPerOp = new double[iterations];
+		double bytes = 0;
+		for(int i = 0; i < iterations; i++)
+		{
+			setup();
+			long threadId = Thread.currentThread().getId();
+			long allocStart = (allocBean != null) ? allocBean.getThreadAllocatedBytes(threadId) : 0;
+			long start = System.nanoTime();
+			long n = run();
+			long time = System.nanoTime() - start;
+			long alloc = (allocBean != null) ? allocBean.getThreadAllocatedBytes(threadId) - allocStart : 0;
+
+			ops = n;
+			nsPerOp[i] = time * 1.0 / Math.max(n, 1);
+			bytes += alloc * 1.0 / Math.max(n, 1);
+		}
+
+		return new BenchmarkResult(name, ops, nsPerOp, (allocBean != null) ? bytes / iterations : -1);
+	}
+}
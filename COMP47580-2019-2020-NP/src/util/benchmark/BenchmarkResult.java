@@ -0,0 +1,124 @@
+/**
+ * The results of the measurement iterations of a benchmark
+ */
+
+package util.benchmark;
+
+public class BenchmarkResult
+{
+	private String name; // the name of the benchmark
+	private long ops; // the number of operations per iteration
+	private double[] nsPerOp; // the time per operation of each iteration (nanoseconds)
+	private double bytesPerOp; // the mean bytes allocated per operation (-1 if not measured)
+
+	/**
+	 * constructor - creates a new BenchmarkResult object
+	 * @param name - the name of the benchmark
+	 * @param ops - the number of operations per iteration
+	 * @param nsPerOp - the time per operation of each iteration (nanoseconds)
+	 * @param bytesPerOp - the mean bytes allocated per operation (-1 if not measured)
+	 */
+	public BenchmarkResult(final String name, final long ops, final double[] nsPerOp, final double bytesPerOp)
+	{
+		this.name = name;
+		this.ops = ops;
+		this.nsPerOp = nsPerOp;
+		this.bytesPerOp = bytesPerOp;
+	}
+
+	/**
+	 * @returns the name of the benchmark
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @returns the number of operations per iteration
+	 */
+	public long getOps()
+	{
+		return ops;
+	}
+
+	/**
+	 * @returns the number of iterations measured
+	 */
+	public int getIterations()
+	{
+		return nsPerOp.length;
+	}
+
+	/**
+	 * @returns the mean time per operation over the iterations (nanoseconds)
+	 */
+	public double getMean()
+	{
+		double sum = 0;
+		for(double t: nsPerOp)
+			sum += t;
+		return sum / nsPerOp.length;
+	}
+
+	/**
+	 * @returns the standard deviation of the time per operation over the iterations (nanoseconds)
+	 */
+	public double getStdDev()
+	{
+		if(nsPerOp.length < 2)
+			return 0;
+
+		double mean = getMean();
+		double sum = 0;
+		for(double t: nsPerOp)
+			sum += (t - mean) * (t - mean);
+		return Math.sqrt(sum / (nsPerOp.length - 1));
+	}
+
+	/**
+	 * @returns the minimum time per operation over the iterations (nanoseconds)
+	 */
+	public double getMin()
+	{
+		double min = Double.POSITIVE_INFINITY;
+		for(double t: nsPerOp)
+			min = Math.min(min, t);
+		return min;
+	}
+
+	/**
+	 * @returns the throughput over the iterations (operations per second)
+	 */
+	public double getThroughput()
+	{
+		return 1e9 / getMean();
+	}
+
+	/**
+	 * @returns the mean bytes allocated per operation (-1 if not measured)
+	 */
+	public double getBytesPerOp()
+	{
+		return bytesPerOp;
+	}
+
+	/**
+	 * @returns the header of the CSV format returned by toString()
+	 */
+	public static String getHeader()
+	{
+		return "benchmark,ops/iteration,iterations,mean ns/op,sd ns/op,min ns/op,bytes/op,ops/s";
+	}
+
+	/**
+	 * @returns the results in CSV format
+	 */
+	public String toString()
+	{
+		return name + "," + ops + "," + getIterations() + "," +
+				String.format("%.1f,%.1f,%.1f,", getMean(), getStdDev(), getMin()) +
+				((bytesPerOp >= 0) ? String.format("%.1f", bytesPerOp) : "n/a") + "," +
+				String.format("%.0f", getThroughput());
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ * A class to accumulate all evaluation metrics over the target items, given the 
+ * recommendations made for each target item. Accumulators over disjoint sets of
+ * target items can be merged.
+ */
+
+package util.np.evaluator;
+
+import java.util.BitSet;
+
+import profile.Profile;
+import util.IdDictionary;
+import util.reader.DatasetReader;
+
+class EvaluationAccumulator 
+{
+	private DatasetReader reader; // dataset reader
+	private IdDictionary itemDictionary; // the dense indexes of the items
+	private int nitems; // the number of items in the dataset
+	private int nusers; // the number of users in the dataset
+
+	private int ncovered = 0; // the number of target items with at least one recommendation
+	private BitSet allRecs = new BitSet(); // the dense indexes of the items recommended for at least one target item
+	private double sumCoverage = 0; // the sum of the item space coverage over the target items with a neighbour
+	private int nneighbours = 0; // the number of target items with at least one neighbour
+	private double sumPopularity = 0; // the sum of the mean popularity over the target items with a recommendation
+	private double sumRelevance = 0; // the sum of the mean relevance over the target items with a recommendation
+	private int nrecs = 0; // the number of target items with at least one recommendation
+
+	/**
+	 * constructor - creates a new EvaluationAccumulator object
+	 * @param reader - dataset reader
+	 */
+	EvaluationAccumulator(final DatasetReader reader)
+	{
+		this.reader = reader;
+		this.itemDictionary = reader.getItemDictionary();
+		this.nitems = reader.getItems().size();
+		this.nusers = reader.getUserProfiles().size();
+	}
+
+	/**
+	 * adds a target item to all metrics
+	 * @param recs - the top-k recommendations made for the target item
+	 * @param nneighbourItems - the number of items capable of being recommended for the target item
+	 */
+	void add(final int[] recs, final int nneighbourItems)
+	{
+		// coverage
+		if (recs.length > 0)
+			ncovered++;
+
+		// recommendation coverage
+		for (int i = 0; i < recs.length; i++)
+			allRecs.set(itemDictionary.getIndex(recs[i]));
+
+		// item space coverage
+		if (nneighbourItems > 0) {
+			sumCoverage += (nitems - 1 > 0) ? nneighbourItems * 1.0 / (nitems - 1) : 0;
+			nneighbours++;
+		}
+
+		// recommendation popularity and relevance
+		double popularity = 0, relevance = 0;
+		for (int i = 0; i < recs.length; i++) {
+			Profile profile = reader.getItemProfileAt(itemDictionary.getIndex(recs[i]));
+			popularity += profile.getSize() * 1.0 / nusers;
+			relevance += profile.getStatistics().getMean();
+		}
+
+		if (recs.length > 0) {
+			sumPopularity += popularity / recs.length;
+			sumRelevance += relevance / recs.length;
+			nrecs++;
+		}
+	}
+
+	/**
+	 * merges the target items added to another accumulator into this accumulator
+	 * @param other - an accumulator over a disjoint set of target items
+	 */
+	void merge(final EvaluationAccumulator other)
+	{
+		ncovered += other.ncovered;
+		allRecs.or(other.allRecs);
+		sumCoverage += other.sumCoverage;
+		nneighbours += other.nneighbours;
+		sumPopularity += other.sumPopularity;
+		sumRelevance += other.sumRelevance;
+		nrecs += other.nrecs;
+	}
+
+	/**
+	 * @returns the values of all metrics over the target items added
+	 */
+	EvaluationResult getResult()
+	{
+		return new EvaluationResult(
+				(nrecs > 0) ? sumRelevance / nrecs : 0,
+				(nitems > 0) ? ncovered * 1.0 / nitems : 0,
+				(nitems > 0) ? allRecs.cardinality() * 1.0 / nitems : 0,
+				(nneighbours > 0) ? sumCoverage / nneighbours : 0,
+				(nrecs > 0) ? sumPopularity / nrecs : 0);
+	}
+}
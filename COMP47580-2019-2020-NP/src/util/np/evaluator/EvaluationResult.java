@@ -0,0 +1,77 @@
+/**
+ * A class to store the results of evaluating a non-personalised recommender algorithm
+ */
+
+package util.np.evaluator;
+
+public class EvaluationResult 
+{
+	private final double relevance; // the mean relevance of the top-k recommendations
+	private final double coverage; // the percentage of target items for which at least one recommendation can be made
+	private final double recommendationCoverage; // the percentage of items which appear in at least one top-k recommendation list
+	private final double itemSpaceCoverage; // the mean percentage of items capable of being recommended for a target item
+	private final double recommendationPopularity; // the mean popularity of the top-k recommendations
+
+	/**
+	 * constructor - creates a new EvaluationResult object
+	 * @param relevance - the recommendation relevance
+	 * @param coverage - the coverage
+	 * @param recommendationCoverage - the recommendation coverage
+	 * @param itemSpaceCoverage - the item space coverage
+	 * @param recommendationPopularity - the recommendation popularity
+	 */
+	public EvaluationResult(final double relevance, final double coverage, final double recommendationCoverage, 
+			final double itemSpaceCoverage, final double recommendationPopularity)
+	{
+		this.relevance = relevance;
+		this.coverage = coverage;
+		this.recommendationCoverage = recommendationCoverage;
+		this.itemSpaceCoverage = itemSpaceCoverage;
+		this.recommendationPopularity = recommendationPopularity;
+	}
+
+	/**
+	 * @return the recommendation relevance (see Evaluator.getRecommendationRelevance())
+	 */
+	public double getRecommendationRelevance() {
+		return relevance;
+	}
+
+	/**
+	 * @return the coverage (see Evaluator.getCoverage())
+	 */
+	public double getCoverage() {
+		return coverage;
+	}
+
+	/**
+	 * @return the recommendation coverage (see Evaluator.getRecommendationCoverage())
+	 */
+	public double getRecommendationCoverage() {
+		return recommendationCoverage;
+	}
+
+	/**
+	 * @return the item space coverage (see Evaluator.getItemSpaceCoverage())
+	 */
+	public double getItemSpaceCoverage() {
+		return itemSpaceCoverage;
+	}
+
+	/**
+	 * @return the recommendation popularity (see Evaluator.getRecommendationPopularity())
+	 */
+	public double getRecommendationPopularity() {
+		return recommendationPopularity;
+	}
+
+	/**
+	 * @returns the results as a comma-separated string, in the order: relevance, coverage, 
+	 * recommendation coverage, item space coverage, recommendation popularity
+	 */
+	@Override
+	public String toString()
+	{
+		return relevance + "," + coverage + "," + recommendationCoverage + "," + itemSpaceCoverage + "," + recommendationPopularity;
+	}
+}
@@ -4,12 +4,15 @@
 
 package util.np.evaluator;
 
-import java.util.HashSet;
-import java.util.List;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import alg.np.NonPersonalisedRecommender;
+import util.IdDictionary;
 import util.Item;
 import util.reader.DatasetReader;
 
@@ -32,6 +35,51 @@ public class Evaluator
 		this.k = k;
 	}
 
+	/**
+	 * computes all metrics in a single pass over the target items, fetching the 
+	 * recommendations for each target item once - the values are identical to 
+	 * those returned by the individual metric methods below
+	 * @return the values of all metrics
+	 */
+	public EvaluationResult evaluate() {
+		EvaluationAccumulator acc = new EvaluationAccumulator(reader);
+
+		Map<Integer,Item> items = reader.getItems();
+		for (Integer itemId: items.keySet())
+			acc.add(alg.getRecommendations(itemId, k), alg.getNeighbourCount(itemId));
+
+		return acc.getResult();
+	}
+
+	/**
+	 * computes all metrics in parallel - the target items are split into fixed-size blocks 
+	 * of ascending item id, each block is accumulated separately and the blocks are merged 
+	 * in the same order whatever the number of threads, so the values returned do not 
+	 * depend on the number of threads (they may differ from evaluate() by rounding error only)
+	 * @param nThreads - the number of worker threads
+	 * @return the values of all metrics
+	 */
+	public EvaluationResult evaluate(final int nThreads) {
+		if (nThreads < 1) {
+			System.out.println("Error - invalid number of threads");
+			System.exit(1);
+		}
+
+		Set<Integer> itemIds = reader.getItems().keySet();
+		int[] ids = new int[itemIds.size()];
+		int n = 0;
+		for (Integer itemId: itemIds)
+			ids[n++] = itemId;
+		Arrays.sort(ids);
+
+		ForkJoinPool pool = new ForkJoinPool(nThreads);
+		try {
+			return pool.invoke(new EvaluationTask(ids, 0, ids.length)).getResult();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
 	/**
 	 * @return the coverage which is given by the percentage of target 
 	 * items for which at least one recommendation can be made
@@ -41,8 +89,8 @@ public class Evaluator
 
 		Map<Integer,Item> items = reader.getItems();
 		for (Integer itemId: items.keySet()) {
-			List<Integer> recs = alg.getRecommendations(itemId);
-			if (recs.size() > 0) 
+			int[] recs = alg.getRecommendations(itemId, k);
+			if (recs.length > 0) 
 				nitems++;
 		}
 
@@ -54,16 +102,17 @@ public class Evaluator
 	 * least once in the top-k recommendations made over all target items
 	 */
 	public double getRecommendationCoverage() {
-		Set<Integer> allRecs = new HashSet<Integer>();
+		BitSet allRecs = new BitSet(); // the dense indexes of the items recommended
+		IdDictionary itemDictionary = reader.getItemDictionary();
 
 		Map<Integer,Item> items = reader.getItems();
 		for (Integer itemId: items.keySet()) {
-			List<Integer> recs = alg.getRecommendations(itemId);
-			for (int i = 0; i < recs.size() && i < k; i++)
-				allRecs.add(recs.get(i));
+			int[] recs = alg.getRecommendations(itemId, k);
+			for (int i = 0; i < recs.length; i++)
+				allRecs.set(itemDictionary.getIndex(recs[i]));
 		}
 		
-		return (items.keySet().size() > 0) ? allRecs.size() * 1.0 / (items.keySet().size()) : 0;
+		return (items.keySet().size() > 0) ? allRecs.cardinality() * 1.0 / (items.keySet().size()) : 0;
 	}
 	
 	/**
@@ -78,9 +127,9 @@ public class Evaluator
 
 		Map<Integer,Item> items = reader.getItems();
 		for (Integer itemId: items.keySet()) {
-			List<Integer> recs = alg.getRecommendations(itemId);
-			if (recs.size() > 0) {
-				meanCoverage += (items.keySet().size() - 1 > 0) ? recs.size() * 1.0 / (items.keySet().size() - 1) : 0;
+			int nrecs = alg.getNeighbourCount(itemId); // the number of items capable of being recommended
+			if (nrecs > 0) {
+				meanCoverage += (items.keySet().size() - 1 > 0) ? nrecs * 1.0 / (items.keySet().size() - 1) : 0;
 				nitems++;
 			}
 		}
@@ -104,9 +153,9 @@ public class Evaluator
 		for (Integer itemId: items.keySet()) {
 			double popularity = 0;
 			int counter = 0;
-			List<Integer> recs = alg.getRecommendations(itemId);
-			for (int i = 0; i < recs.size() && i < k; i++) {
-				popularity += reader.getItemProfiles().get(recs.get(i)).getSize() * 1.0 / reader.getUserProfiles().size();
+			int[] recs = alg.getRecommendations(itemId, k);
+			for (int i = 0; i < recs.length; i++) {
+				popularity += reader.getItemProfile(recs[i]).getSize() * 1.0 / reader.getUserProfiles().size();
 				counter++;
 			}
 
@@ -135,9 +184,9 @@ public class Evaluator
 		for (Integer itemId: items.keySet()) {
 			double relevance = 0;
 			int counter = 0;
-			List<Integer> recs = alg.getRecommendations(itemId);
-			for (int i = 0; i < recs.size() && i < k; i++) {
-				relevance += reader.getItemProfiles().get(recs.get(i)).getMeanValue();
+			int[] recs = alg.getRecommendations(itemId, k);
+			for (int i = 0; i < recs.length; i++) {
+				relevance += reader.getItemProfile(recs[i]).getStatistics().getMean();
 				counter++;
 			}
 
@@ -159,9 +208,9 @@ public class Evaluator
 		Map<Integer,Item> items = reader.getItems();
 
 		System.out.println("Title: " + item.getName());
-		List<Integer> recs = alg.getRecommendations(item.getId());
-		for (int i = 0; i < recs.size() && i < k; i++)
-			System.out.println("\tRec " + (i + 1) + ": " + items.get(recs.get(i)).getName());
+		int[] recs = alg.getRecommendations(item.getId(), k);
+		for (int i = 0; i < recs.length; i++)
+			System.out.println("\tRec " + (i + 1) + ": " + items.get(recs[i]).getName());
 		System.out.println();
 	}
 
@@ -175,13 +224,13 @@ public class Evaluator
 
 		Map<Integer,Item> items = reader.getItems();
 		for (Integer itemId: items.keySet()) {
-			List<Integer> recs1 = alg1.getRecommendations(itemId);
-			List<Integer> recs2 = alg2.getRecommendations(itemId);
+			int[] recs1 = alg1.getRecommendations(itemId, k);
+			int[] recs2 = alg2.getRecommendations(itemId, k);
 
 			int count = 0;
-			for (int i = 0; i < recs1.size() && i < k; i++)
-				for (int j = 0; j < recs2.size() && j < k; j++)
-					if (recs1.get(i) == recs2.get(j)) {
+			for (int i = 0; i < recs1.length; i++)
+				for (int j = 0; j < recs2.length; j++)
+					if (recs1[i] == recs2[j]) {
 						count++;
 						break;
 					}
@@ -191,4 +240,44 @@ public class Evaluator
 
 		return (items.size() > 0) ? sumCommon * 1.0 / items.size() : 0;
 	}
+
+	/**
+	 * A fork-join task which accumulates the metrics over a block [lo, hi) of target items
+	 */
+	private class EvaluationTask extends RecursiveTask<EvaluationAccumulator>
+	{
+		private static final long serialVersionUID = 1L;
+		private static final int BLOCK_SIZE = 256; // the maximum number of target items accumulated by a single task
+
+		private final int[] ids; // the target item ids in ascending order
+		private final int lo; // the first target item of the block
+		private final int hi; // one past the last target item of the block
+
+		EvaluationTask(final int[] ids, final int lo, final int hi)
+		{
+			this.ids = ids;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected EvaluationAccumulator compute()
+		{
+			if (hi - lo > BLOCK_SIZE) {
+				int mid = (lo + hi) >>> 1;
+				EvaluationTask left = new EvaluationTask(ids, lo, mid);
+				EvaluationTask right = new EvaluationTask(ids, mid, hi);
+				left.fork();
+				EvaluationAccumulator rightAcc = right.compute();
+				EvaluationAccumulator acc = left.join();
+				acc.merge(rightAcc);
+				return acc;
+			}
+
+			EvaluationAccumulator acc = new EvaluationAccumulator(reader);
+			for (int i = lo; i < hi; i++)
+				acc.add(alg.getRecommendations(ids[i], k), alg.getNeighbourCount(ids[i]));
+			return acc;
+		}
+	}
 }
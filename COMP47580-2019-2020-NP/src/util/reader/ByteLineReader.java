@@ -0,0 +1,411 @@
+/**
+ * ByteLineReader reads a text file line by line as raw bytes through an NIO channel, and splits each
+ * line into fields in the same way as a StringTokenizer (consecutive delimiters are treated as one, and
+ * leading and trailing delimiters are ignored). Numeric fields are decoded directly from the bytes,
+ * so reading a line of numbers does not allocate any objects. A reader can be restricted to a 
+ * line-aligned chunk of the file, so that the chunks of a file can be read concurrently.
+ */
+
+package util.reader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class ByteLineReader
+{
+	private static final double[] POWERS_OF_TEN = { // powers of ten which are exactly representable as doubles
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	private static final long MAX_EXACT_MANTISSA = 1L << 53; // the largest mantissa which is exactly representable as a double
+
+	private FileInputStream in; // the file input stream
+	private FileChannel channel; // the file channel
+	private ByteBuffer buf; // the read buffer (backed by the byte array)
+	private byte[] bytes; // the bytes of the read buffer
+	private boolean eof; // true once the end of the file (or chunk) has been read into the buffer
+	private long position; // the file position from which the buffer is next filled
+	private long chunkEnd; // the file position at which reading stops
+	private boolean[] delimiters; // true for each byte which is a field delimiter
+
+	private int lineStart; // the offset of the current line in the buffer
+	private int lineEnd; // the offset one past the end of the current line in the buffer
+	private int next; // the offset of the next line in the buffer
+	private int[] fieldStarts; // the offset of each field of the current line
+	private int[] fieldEnds; // the offset one past the end of each field of the current line
+	private int nfields; // the number of fields in the current line
+
+	/**
+	 * constructor - creates a new ByteLineReader object
+	 * @param filename - the path of the file
+	 * @param delimiters - the characters which separate the fields of a line
+	 */
+	public ByteLineReader(final String filename, final String delimiters) throws IOException
+	{
+		this(filename, delimiters, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * constructor - creates a new ByteLineReader object which reads a chunk of a file
+	 * @param filename - the path of the file
+	 * @param delimiters - the characters which separate the fields of a line
+	 * @param start - the file position of the start of the chunk (the start of a line)
+	 * @param end - the file position of the end of the chunk (the start of a line, or the end of the file)
+	 */
+	public ByteLineReader(final String filename, final String delimiters, final long start, final long end) throws IOException
+	{
+		this.position = start;
+		this.chunkEnd = end;
+		this.in = new FileInputStream(new File(filename));
+		this.channel = in.getChannel();
+		this.bytes = new byte[1 << 16];
+		this.buf = ByteBuffer.wrap(bytes);
+		this.buf.limit(0);
+		this.eof = false;
+
+		this.delimiters = new boolean[256];
+		for(int i = 0; i < delimiters.length(); i++)
+			this.delimiters[delimiters.charAt(i) & 0xff] = true;
+
+		this.fieldStarts = new int[8];
+		this.fieldEnds = new int[8];
+		this.next = 0;
+	}
+
+	/**
+	 * splits a file into chunks which start and end on line boundaries
+	 * @param filename - the path of the file
+	 * @param nchunks - the maximum number of chunks
+	 * @returns the file positions of the chunk boundaries - chunk i runs from boundaries[i] to boundaries[i + 1]
+	 */
+	public static long[] getChunkBoundaries(final String filename, final int nchunks) throws IOException
+	{
+		FileInputStream in = new FileInputStream(new File(filename));
+		FileChannel channel = in.getChannel();
+		long size = channel.size();
+
+		long[] boundaries = new long[nchunks + 1];
+		int n = 1;
+		ByteBuffer probe = ByteBuffer.allocate(1 << 12);
+		for(int i = 1; i < nchunks; i++)
+		{
+			// move the nominal boundary forward to the start of the next line
+			long pos = Math.max(size * i / nchunks, boundaries[n - 1]);
+			boolean found = false;
+			while(!found && pos < size)
+			{
+				probe.clear();
+				int nread = channel.read(probe, pos);
+				for(int j = 0; j < nread && !found; j++)
+				{
+					byte b = probe.get(j);
+					if(b == '\n' || b == '\r')
+					{
+						pos += j + 1;
+						found = true;
+						if(b == '\r') // "\r\n" is a single terminator
+						{
+							probe.clear();
+							probe.limit(1);
+							if(channel.read(probe, pos) == 1 && probe.get(0) == '\n')
+								pos++;
+						}
+					}
+				}
+				if(!found)
+					pos += nread;
+			}
+
+			if(pos < size && pos > boundaries[n - 1])
+				boundaries[n++] = pos;
+		}
+		boundaries[n++] = size;
+
+		channel.close();
+		in.close();
+		return Arrays.copyOf(boundaries, n);
+	}
+
+	/**
+	 * reads the next line - lines are terminated by "\n", "\r" or "\r\n"
+	 * @returns false if the end of the file has been reached
+	 */
+	public boolean nextLine() throws IOException
+	{
+		// find the end of the line, reading more of the file if necessary
+		int end = next;
+		while(true)
+		{
+			while(end < buf.limit() && bytes[end] != '\n' && bytes[end] != '\r')
+				end++;
+			if(end < buf.limit() || eof)
+				break;
+			int shift = refill(next);
+			end -= shift;
+			next -= shift;
+		}
+
+		if(end == next && end == buf.limit()) // no more lines
+			return false;
+
+		lineStart = next;
+		lineEnd = end;
+
+		// skip the line terminator - "\r\n" is a single terminator
+		next = end;
+		if(next < buf.limit())
+		{
+			if(bytes[next] == '\r')
+			{
+				next++;
+				if(next == buf.limit() && !eof)
+				{
+					int shift = refill(lineStart); // keep the current line in the buffer
+					lineStart -= shift;
+					lineEnd -= shift;
+					next -= shift;
+				}
+				if(next < buf.limit() && bytes[next] == '\n')
+					next++;
+			}
+			else
+				next++;
+		}
+
+		split();
+		return true;
+	}
+
+	/**
+	 * @returns the number of fields in the current line
+	 */
+	public int getFieldCount()
+	{
+		return nfields;
+	}
+
+	/**
+	 * @returns a field of the current line decoded as an int
+	 * @param field - the index of the field
+	 */
+	public int getInt(final int field)
+	{
+		return parseInt(fieldStarts[field], fieldEnds[field]);
+	}
+
+	/**
+	 * @returns a field of the current line decoded as a double
+	 * @param field - the index of the field
+	 */
+	public double getDouble(final int field)
+	{
+		return parseDouble(fieldStarts[field], fieldEnds[field]);
+	}
+
+	/**
+	 * @returns a field of the current line as a string
+	 * @param field - the index of the field
+	 */
+	public String getString(final int field)
+	{
+		return decode(fieldStarts[field], fieldEnds[field]);
+	}
+
+	/**
+	 * @returns the length of the current line in bytes
+	 */
+	public int getLineLength()
+	{
+		return lineEnd - lineStart;
+	}
+
+	/**
+	 * @returns the offset of the first occurrence of a character in the current line (or -1 if not found)
+	 * @param ch - an ASCII character
+	 */
+	public int indexOf(final char ch)
+	{
+		for(int i = lineStart; i < lineEnd; i++)
+			if(bytes[i] == ch)
+				return i - lineStart;
+		return -1;
+	}
+
+	/**
+	 * @returns the offset of the last occurrence of a character in the current line (or -1 if not found)
+	 * @param ch - an ASCII character
+	 */
+	public int lastIndexOf(final char ch)
+	{
+		for(int i = lineEnd - 1; i >= lineStart; i--)
+			if(bytes[i] == ch)
+				return i - lineStart;
+		return -1;
+	}
+
+	/**
+	 * @returns part of the current line decoded as an int
+	 * @param from - the offset of the first byte in the line
+	 * @param to - the offset one past the last byte in the line
+	 */
+	public int getInt(final int from, final int to)
+	{
+		return parseInt(lineStart + from, lineStart + to);
+	}
+
+	/**
+	 * @returns part of the current line as a string
+	 * @param from - the offset of the first byte in the line
+	 * @param to - the offset one past the last byte in the line
+	 */
+	public String getString(final int from, final int to)
+	{
+		return decode(lineStart + from, lineStart + to);
+	}
+
+	/**
+	 * closes the file
+	 */
+	public void close() throws IOException
+	{
+		channel.close();
+		in.close();
+	}
+
+	/**
+	 * moves the part of the buffer still needed to the start and reads more of the file, growing the buffer if it is full
+	 * @param keep - the offset of the first byte of the buffer still needed
+	 * @returns the number of bytes by which the buffer was shifted
+	 */
+	private int refill(final int keep) throws IOException
+	{
+		int shift = keep;
+		int remaining = buf.limit() - keep;
+		System.arraycopy(bytes, keep, bytes, 0, remaining);
+
+		if(remaining == bytes.length)
+		{
+			bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			buf = ByteBuffer.wrap(bytes);
+		}
+
+		// read up to the end of the chunk
+		buf.limit((int)Math.min(bytes.length, remaining + Math.max(0, chunkEnd - position)));
+		buf.position(remaining);
+		int n = buf.hasRemaining() ? 0 : -1;
+		while(n == 0)
+			n = channel.read(buf, position);
+		if(n < 0)
+			eof = true;
+		else
+			position += n;
+		buf.limit(buf.position());
+		return shift;
+	}
+
+	/**
+	 * splits the current line into fields
+	 */
+	private void split()
+	{
+		nfields = 0;
+		int i = lineStart;
+		while(i < lineEnd)
+		{
+			while(i < lineEnd && delimiters[bytes[i] & 0xff])
+				i++;
+			if(i == lineEnd)
+				break;
+
+			int start = i;
+			while(i < lineEnd && !delimiters[bytes[i] & 0xff])
+				i++;
+
+			if(nfields == fieldStarts.length)
+			{
+				fieldStarts = Arrays.copyOf(fieldStarts, nfields * 2);
+				fieldEnds = Arrays.copyOf(fieldEnds, nfields * 2);
+			}
+			fieldStarts[nfields] = start;
+			fieldEnds[nfields] = i;
+			nfields++;
+		}
+	}
+
+	/**
+	 * @returns the bytes [from, to) of the buffer decoded as an int - behaves as Integer.parseInt()
+	 */
+	private int parseInt(final int from, final int to)
+	{
+		int i = from;
+		boolean negative = false;
+		if(i < to && (bytes[i] == '-' || bytes[i] == '+'))
+			negative = (bytes[i++] == '-');
+
+		if(i == to || to - i > 9) // empty, or may overflow
+			return Integer.parseInt(decode(from, to));
+
+		int value = 0;
+		for(; i < to; i++)
+		{
+			int digit = bytes[i] - '0';
+			if(digit < 0 || digit > 9)
+				return Integer.parseInt(decode(from, to)); // throws NumberFormatException
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * @returns the bytes [from, to) of the buffer decoded as a double - behaves as Double.parseDouble().
+	 * Plain decimals are decoded directly: the digits form an exact integer mantissa which is divided
+	 * by an exact power of ten, so the result is correctly rounded as by Double.parseDouble(). Other
+	 * forms (exponents, very long mantissas, etc.) are passed to Double.parseDouble().
+	 */
+	private double parseDouble(final int from, final int to)
+	{
+		int i = from;
+		boolean negative = false;
+		if(i < to && (bytes[i] == '-' || bytes[i] == '+'))
+			negative = (bytes[i++] == '-');
+
+		long mantissa = 0;
+		int ndigits = 0, nfraction = 0;
+		boolean point = false;
+		for(; i < to; i++)
+		{
+			byte b = bytes[i];
+			if(b >= '0' && b <= '9')
+			{
+				mantissa = mantissa * 10 + (b - '0');
+				ndigits++;
+				if(point)
+					nfraction++;
+				if(mantissa >= MAX_EXACT_MANTISSA)
+					return Double.parseDouble(decode(from, to));
+			}
+			else if(b == '.' && !point)
+				point = true;
+			else
+				return Double.parseDouble(decode(from, to)); // an exponent, whitespace or an invalid number
+		}
+
+		if(ndigits == 0 || nfraction >= POWERS_OF_TEN.length)
+			return Double.parseDouble(decode(from, to));
+
+		double value = (nfraction == 0) ? mantissa : mantissa / POWERS_OF_TEN[nfraction];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * @returns the bytes [from, to) of the buffer decoded as a UTF-8 string
+	 */
+	private String decode(final int from, final int to)
+	{
+		return new String(bytes, from, to - from, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,435 @@
+/**
+ * DatasetGenerator writes a synthetic dataset in the MovieLens 20M format read by DatasetReader, so that
+ * the scaling behaviour of loading, similarity building and evaluation can be tested offline on datasets
+ * of any size. The dataset folder contains the same files as ml-20m-2019-2020: movies-sample.txt (items
+ * with titles and genres), genome-scores-sample.txt (a relevance score for each item and tag), train.txt
+ * and test.txt (user-item ratings).
+ *
+ * The dataset is shaped like MovieLens:
+ * - item popularity follows a power law (Zipf's law) - the item of popularity rank r is rated with
+ *   probability proportional to 1 / r^itemSkew, and the most popular items are spread over the id range
+ * - user activity follows a power law - the user of activity rank r rates a number of items proportional
+ *   to 1 / r^userSkew (each user rates at least one item and at most half of the items)
+ * - ratings are half-stars from 0.5 to 5, drawn around a user bias and an item bias (popular items are
+ *   rated slightly higher), skewed towards 3 to 5 stars as in MovieLens
+ * - each item has 1 to 4 genres from the MovieLens genres, drawn in proportion to their MovieLens frequency
+ * - genome relevances are mostly low, with higher relevances for the tags associated with the item's genres
+ * - item and user ids have gaps, as MovieLens ids do
+ * Each rating is held out in the test file with probability testFraction. The dataset is determined by the
+ * parameters and the seed.
+ */
+
+package util.reader;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class DatasetGenerator
+{
+	private static final String[] GENRES = {"Drama", "Comedy", "Thriller", "Romance", "Action", "Crime", "Horror", "Documentary",
+			"Adventure", "Sci-Fi", "Mystery", "Fantasy", "War", "Children", "Musical", "Animation", "Western", "Film-Noir", "IMAX"}; // the MovieLens genres
+	private static final double[] GENRE_WEIGHTS = {13344, 8374, 4178, 4127, 3520, 2939, 2611, 2471,
+			2329, 1743, 1514, 1412, 1194, 1139, 1036, 1027, 676, 330, 196}; // the number of MovieLens 20M movies with each genre
+	private static final String[] RATINGS = {"0.5", "1.0", "1.5", "2.0", "2.5", "3.0", "3.5", "4.0", "4.5", "5.0"}; // the half-star ratings
+	private static final int MAX_REJECTIONS = 32; // the number of repeated items drawn for a user before the next item is chosen by scanning
+
+	private String folder; // the folder to which the dataset is written
+	private long nratings; // the number of ratings (training and test)
+	private int nitems; // the number of items
+	private int nusers; // the number of users
+	private int ntags; // the number of genome tags
+	private double testFraction = 0.1; // the probability that a rating is held out in the test file
+	private double itemSkew = 1.0; // the exponent of the item popularity power law
+	private double userSkew = 0.8; // the exponent of the user activity power law
+	private long seed = 47580; // the random seed
+
+	/**
+	 * generates a dataset
+	 * @param args - the output folder and the number of ratings, optionally followed by -items n, -users n,
+	 * -tags n, -test fraction, -itemSkew s, -userSkew s and -seed n
+	 */
+	public static void main(String[] args)
+	{
+		if(args.length < 2)
+		{
+			System.out.println("Usage: DatasetGenerator folder nratings [-items n] [-users n] [-tags n] [-test fraction] [-itemSkew s] [-userSkew s] [-seed n]");
+			System.exit(1);
+		}
+
+		DatasetGenerator generator = new DatasetGenerator(args[0], Long.parseLong(args[1]));
+		for(int i = 2; i < args.length; i++)
+		{
+			if(i + 1 == args.length)
+			{
+				System.out.println("Error - no value given for option " + args[i]);
+				System.exit(1);
+			}
+
+			if(args[i].equals("-items"))
+				generator.nitems = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-users"))
+				generator.nusers = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-tags"))
+				generator.ntags = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-test"))
+				generator.testFraction = Double.parseDouble(args[++i]);
+			else if(args[i].equals("-itemSkew"))
+				generator.itemSkew = Double.parseDouble(args[++i]);
+			else if(args[i].equals("-userSkew"))
+				generator.userSkew = Double.parseDouble(args[++i]);
+			else if(args[i].equals("-seed"))
+				generator.seed = Long.parseLong(args[++i]);
+			else
+			{
+				System.out.println("Error - unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		long start = System.currentTimeMillis();
+		generator.generate();
+		System.out.println("Generated " + generator.nratings + " ratings of " + generator.nitems + " items by " + generator.nusers +
+				" users with " + generator.ntags + " genome tags in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * constructor - creates a new DatasetGenerator object - the numbers of items and users are scaled with the
+	 * number of ratings as in the ml-20m-2019-2020 sample (about 6 * sqrt(nratings) items and 70 ratings per user),
+	 * and there are 100 genome tags
+	 * @param folder - the folder to which the dataset is written
+	 * @param nratings - the number of ratings
+	 */
+	public DatasetGenerator(final String folder, final long nratings)
+	{
+		this.folder = folder;
+		this.nratings = nratings;
+		this.nitems = (int)Math.max(20, Math.round(6 * Math.sqrt(nratings)));
+		this.nusers = (int)Math.max(1, nratings / 70);
+		this.ntags = 100;
+	}
+
+	/**
+	 * writes the dataset files
+	 */
+	public void generate()
+	{
+		if(nratings < 1 || nitems < 2 || nusers < 1 || ntags < 1 || testFraction < 0 || testFraction >= 1 || itemSkew < 0 || userSkew < 0)
+		{
+			System.out.println("Error - invalid dataset parameters");
+			System.exit(1);
+		}
+		if(nratings < nusers || nratings > (long)nusers * (nitems / 2))
+		{
+			System.out.println("Error - each user must rate at least one item and at most half of the items");
+			System.exit(1);
+		}
+
+		new File(folder).mkdirs();
+		Random random = new Random(seed);
+
+		int[] itemIds = getIds(nitems, random);
+		int[] userIds = getIds(nusers, random);
+
+		// the items in order of popularity - a random permutation, so that popularity is not related to id
+		int[] popularity = new int[nitems];
+		for(int i = 0; i < nitems; i++)
+			popularity[i] = i;
+		for(int i = nitems - 1; i > 0; i--)
+		{
+			int j = random.nextInt(i + 1);
+			int tmp = popularity[i];
+			popularity[i] = popularity[j];
+			popularity[j] = tmp;
+		}
+
+		// the item of each popularity rank is rated higher the more popular it is
+		double[] itemBias = new double[nitems];
+		for(int r = 0; r < nitems; r++)
+			itemBias[popularity[r]] = 0.4 * random.nextGaussian() + 0.3 * (1 - 2.0 * r / nitems);
+
+		try
+		{
+			int[][] itemGenres = writeItems(itemIds, random);
+			writeGenomeScores(itemIds, itemGenres, random);
+			writeRatings(itemIds, userIds, popularity, itemBias, random);
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * writes the items file - each item has a title and 1 to 4 genres
+	 * @returns the genres of each item (indexes into GENRES)
+	 * @param itemIds - the item ids
+	 * @param random - the random number generator
+	 */
+	private int[][] writeItems(final int[] itemIds, final Random random) throws IOException
+	{
+		double[] genreCdf = getCdf(GENRE_WEIGHTS);
+		int[][] itemGenres = new int[nitems][];
+
+		Writer out = getWriter("movies-sample.txt");
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < nitems; i++)
+		{
+			// draw the genres of the item without repetition
+			int ngenres = 1 + Math.min(random.nextInt(3), random.nextInt(4));
+			boolean[] drawn = new boolean[GENRES.length];
+			int[] genres = new int[ngenres];
+			for(int g = 0; g < ngenres; g++)
+			{
+				int genre;
+				do
+					genre = sample(genreCdf, random);
+				while(drawn[genre]);
+				drawn[genre] = true;
+				genres[g] = genre;
+			}
+			Arrays.sort(genres);
+			itemGenres[i] = genres;
+
+			// some titles contain commas and are quoted, as in MovieLens
+			int year = 1915 + random.nextInt(101);
+			sb.setLength(0);
+			sb.append(itemIds[i]).append(',');
+			if(random.nextInt(10) == 0)
+				sb.append("\"Movie ").append(itemIds[i]).append(", The (").append(year).append(")\"");
+			else
+				sb.append("Movie ").append(itemIds[i]).append(" (").append(year).append(')');
+			sb.append(',');
+			for(int g = 0; g < ngenres; g++)
+			{
+				if(g > 0)
+					sb.append('|');
+				sb.append(GENRES[genres[g]]);
+			}
+			sb.append('\n');
+			out.write(sb.toString());
+		}
+		out.close();
+
+		return itemGenres;
+	}
+
+	/**
+	 * writes the genome scores file - the relevance of each tag is mostly low, but is higher for those tags
+	 * associated with the item's genres, so that items sharing genres have similar genome scores
+	 * @param itemIds - the item ids
+	 * @param itemGenres - the genres of each item
+	 * @param random - the random number generator
+	 */
+	private void writeGenomeScores(final int[] itemIds, final int[][] itemGenres, final Random random) throws IOException
+	{
+		// the association of each genre with each tag
+		double[][] affinity = new double[GENRES.length][ntags];
+		for(int g = 0; g < GENRES.length; g++)
+			for(int t = 0; t < ntags; t++)
+				affinity[g][t] = Math.pow(random.nextDouble(), 4);
+
+		Writer out = getWriter("genome-scores-sample.txt");
+		out.write("movieId,tagId,relevance\n");
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < nitems; i++)
+		{
+			sb.setLength(0);
+			for(int t = 0; t < ntags; t++)
+			{
+				double genreAffinity = 0;
+				for(int g: itemGenres[i])
+					genreAffinity = Math.max(genreAffinity, affinity[g][t]);
+				double relevance = 0.6 * genreAffinity + 0.4 * Math.pow(random.nextDouble(), 3);
+				long scaled = Math.max(1, Math.min(100000, Math.round(relevance * 100000)));
+
+				sb.append(itemIds[i]).append(',').append(t + 1).append(',');
+				sb.append(scaled / 100000).append('.');
+				String fraction = Long.toString(scaled % 100000);
+				for(int d = fraction.length(); d < 5; d++)
+					sb.append('0');
+				sb.append(fraction).append('\n');
+			}
+			out.write(sb.toString());
+		}
+		out.close();
+	}
+
+	/**
+	 * writes the training and test ratings files - the ratings of each user are written together
+	 * @param itemIds - the item ids
+	 * @param userIds - the user ids
+	 * @param popularity - the item index of each popularity rank
+	 * @param itemBias - the rating bias of each item
+	 * @param random - the random number generator
+	 */
+	private void writeRatings(final int[] itemIds, final int[] userIds, final int[] popularity, final double[] itemBias, final Random random) throws IOException
+	{
+		double[] itemCdf = getCdf(getPowerLaw(nitems, itemSkew));
+		long[] counts = getUserCounts();
+
+		// users are in random order of activity
+		int[] order = new int[nusers];
+		for(int u = 0; u < nusers; u++)
+			order[u] = u;
+		for(int u = nusers - 1; u > 0; u--)
+		{
+			int j = random.nextInt(u + 1);
+			int tmp = order[u];
+			order[u] = order[j];
+			order[j] = tmp;
+		}
+
+		Writer train = getWriter("train.txt");
+		Writer test = getWriter("test.txt");
+		StringBuilder trainBuffer = new StringBuilder();
+		StringBuilder testBuffer = new StringBuilder();
+		int[] rated = new int[nitems]; // the last user (+1) to rate each item, so that a user rates each item at most once
+		for(int u = 0; u < nusers; u++)
+		{
+			long count = counts[order[u]];
+			double userBias = 0.5 * random.nextGaussian();
+			trainBuffer.setLength(0);
+			testBuffer.setLength(0);
+
+			for(long n = 0; n < count; n++)
+			{
+				// draw an item in proportion to its popularity, scanning for an unrated item if too many drawn are rated
+				int item = -1;
+				for(int tries = 0; tries < MAX_REJECTIONS && item < 0; tries++)
+				{
+					int candidate = popularity[sample(itemCdf, random)];
+					if(rated[candidate] != u + 1)
+						item = candidate;
+				}
+				if(item < 0)
+					for(item = random.nextInt(nitems); rated[item] == u + 1; item = (item + 1) % nitems);
+				rated[item] = u + 1;
+
+				double score = 3.6 + userBias + itemBias[item] + 0.9 * random.nextGaussian();
+				int halfStars = (int)Math.max(1, Math.min(10, Math.round(score * 2)));
+
+				StringBuilder sb = (random.nextDouble() < testFraction) ? testBuffer : trainBuffer;
+				sb.append(userIds[u]).append(',').append(itemIds[item]).append(',').append(RATINGS[halfStars - 1]).append('\n');
+			}
+
+			train.write(trainBuffer.toString());
+			test.write(testBuffer.toString());
+		}
+		train.close();
+		test.close();
+	}
+
+	/**
+	 * @returns the number of ratings of each user in order of activity rank - proportional to the power law,
+	 * with each user rating at least one item and at most half of the items, and summing to nratings
+	 */
+	private long[] getUserCounts()
+	{
+		double[] weights = getPowerLaw(nusers, userSkew);
+		double total = 0;
+		for(double w: weights)
+			total += w;
+
+		long max = nitems / 2;
+		long[] counts = new long[nusers];
+		long sum = 0;
+		for(int u = 0; u < nusers; u++)
+		{
+			counts[u] = Math.max(1, Math.min(max, (long)(nratings * weights[u] / total)));
+			sum += counts[u];
+		}
+
+		// distribute the remaining ratings over the users from the most active, or remove the excess from the most active
+		while(sum != nratings)
+			for(int u = 0; u < nusers && sum != nratings; u++)
+				if(sum < nratings && counts[u] < max)
+				{
+					counts[u]++;
+					sum++;
+				}
+				else if(sum > nratings && counts[u] > 1)
+				{
+					counts[u]--;
+					sum--;
+				}
+
+		return counts;
+	}
+
+	/**
+	 * @returns n ascending ids starting from 1, with gaps between consecutive ids
+	 * @param n - the number of ids
+	 * @param random - the random number generator
+	 */
+	private static int[] getIds(final int n, final Random random)
+	{
+		int[] ids = new int[n];
+		int id = 0;
+		for(int i = 0; i < n; i++)
+		{
+			id += (random.nextInt(4) == 0) ? 2 + random.nextInt(8) : 1;
+			ids[i] = id;
+		}
+		return ids;
+	}
+
+	/**
+	 * @returns the power law weights 1 / r^skew of the ranks r = 1..n
+	 * @param n - the number of ranks
+	 * @param skew - the exponent
+	 */
+	private static double[] getPowerLaw(final int n, final double skew)
+	{
+		double[] weights = new double[n];
+		for(int r = 0; r < n; r++)
+			weights[r] = 1 / Math.pow(r + 1, skew);
+		return weights;
+	}
+
+	/**
+	 * @returns the cumulative distribution of the weights
+	 * @param weights - the weights
+	 */
+	private static double[] getCdf(final double[] weights)
+	{
+		double[] cdf = new double[weights.length];
+		double sum = 0;
+		for(int i = 0; i < weights.length; i++)
+		{
+			sum += weights[i];
+			cdf[i] = sum;
+		}
+		for(int i = 0; i < cdf.length; i++)
+			cdf[i] /= sum;
+		return cdf;
+	}
+
+	/**
+	 * @returns an index drawn from a cumulative distribution
+	 * @param cdf - the cumulative distribution
+	 * @param random - the random number generator
+	 */
+	private static int sample(final double[] cdf, final Random random)
+	{
+		int index = Arrays.binarySearch(cdf, random.nextDouble());
+		index = (index < 0) ? -index - 1 : index + 1;
+		return Math.min(index, cdf.length - 1);
+	}
+
+	/**
+	 * @returns a buffered writer for a file in the dataset folder
+	 * @param filename - the name of the file
+	 */
+	private Writer getWriter(final String filename) throws IOException
+	{
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(folder + File.separator + filename), StandardCharsets.UTF_8), 1 << 16);
+	}
+}
@@ -4,28 +4,48 @@
 
 package util.reader;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import profile.GenomeMatrix;
 import profile.Profile;
 
+import util.IdDictionary;
 import util.Item;
+import util.ScoreFormat;
 import util.UserItemPair;
 
 public class DatasetReader 
 {
+	private static final int CHUNKS_PER_THREAD = 4; // the number of chunks per thread into which the larger files are split when loaded in parallel
+
 	private Map<Integer,Profile> userProfileMap;
 	private Map<Integer,Profile> itemProfileMap;
 	private Map<Integer,Profile> itemGenomeScoresMap;
+	private GenomeMatrix itemGenomeMatrix;
 	private Map<Integer,Item> itemMap;
 	private Map<UserItemPair,Double> testData;
+	private List<String> genres;
+
+	// the dense indexes of the users and items, and the profiles and items stored by dense index
+	private IdDictionary userDictionary;
+	private IdDictionary itemDictionary;
+	private Profile[] userProfiles;
+	private Profile[] itemProfiles;
+	private Item[] items;
 
 	/** 
 	 * Constructs a DatasetReader from the MovieLens 100K dataset
@@ -39,6 +59,7 @@ public class DatasetReader
 		loadItemsML100K(itemFile); // must be called before loadProfiles()
 		loadProfiles(trainFile);
 		loadTestData(testFile);
+		finishLoading();
 	}
 
 	/** 
@@ -54,6 +75,89 @@ public class DatasetReader
 		loadItemsML20M(itemFile); // must be called before loadProfiles()
 		loadProfiles(trainFile);
 		loadTestData(testFile);
+		finishLoading();
+	}
+
+	/** 
+	 * Constructs a DatasetReader from the MovieLens 20M dataset, loading the files in parallel - the ratings and
+	 * genome scores files are split into line-aligned chunks which are parsed concurrently into partial profiles,
+	 * and these are then merged in file order, so the data loaded is the same as for the sequential constructor
+	 * @param itemFile the path of the file containing item descriptions
+	 * @param itemGenomeScoresFile the path of the file containing item genome scores
+	 * @param trainFile the path of the file containing the training user-item ratings
+	 * @param testFile the path of the file containing the test user-item ratings
+	 * @param nThreads the number of threads used to load the files
+	 */
+	public DatasetReader(final String itemFile, final String itemGenomeScoresFile, final String trainFile, final String testFile, final int nThreads)
+	{
+		if(nThreads < 1)
+		{
+			System.out.println("Error - invalid number of threads");
+			System.exit(1);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+
+		try
+		{
+			// the test data is independent of the other files
+			Future<Map<UserItemPair,Double>> testFuture = executor.submit(new Callable<Map<UserItemPair,Double>>() {
+				public Map<UserItemPair,Double> call() throws IOException
+				{
+					return readTestData(testFile);
+				}
+			});
+
+			List<Future<Map<Integer,Profile>>> genomeFutures = submitGenomeScoreChunks(executor, itemGenomeScoresFile, nThreads * CHUNKS_PER_THREAD);
+			List<Future<List<Map<Integer,Profile>>>> ratingFutures = submitRatingChunks(executor, trainFile, nThreads * CHUNKS_PER_THREAD);
+
+			// the items require the genome scores
+			itemGenomeScoresMap = new HashMap<Integer,Profile>();
+			for(Future<Map<Integer,Profile>> future: genomeFutures)
+				mergeProfiles(itemGenomeScoresMap, future.get());
+			loadItemsML20M(itemFile);
+
+			userProfileMap = new HashMap<Integer,Profile>();
+			itemProfileMap = new HashMap<Integer,Profile>();
+			for(Future<List<Map<Integer,Profile>>> future: ratingFutures)
+			{
+				List<Map<Integer,Profile>> partial = future.get();
+				mergeProfiles(userProfileMap, partial.get(0));
+				mergeProfiles(itemProfileMap, partial.get(1));
+			}
+
+			testData = testFuture.get();
+		}
+		catch(IOException | InterruptedException | ExecutionException e)
+		{
+			e.printStackTrace();
+			System.exit(0);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		finishLoading();
+	}
+
+	/**
+	 * Constructs a DatasetReader from data which has already been loaded (e.g. from a binary snapshot)
+	 * @param itemMap the items
+	 * @param itemGenomeScoresMap the item genome scores
+	 * @param userProfileMap the user profiles
+	 * @param itemProfileMap the item profiles
+	 * @param testData the test data
+	 */
+	DatasetReader(final Map<Integer,Item> itemMap, final Map<Integer,Profile> itemGenomeScoresMap, 
+			final Map<Integer,Profile> userProfileMap, final Map<Integer,Profile> itemProfileMap, final Map<UserItemPair,Double> testData)
+	{
+		this.itemMap = itemMap;
+		this.itemGenomeScoresMap = itemGenomeScoresMap;
+		this.userProfileMap = userProfileMap;
+		this.itemProfileMap = itemProfileMap;
+		this.testData = testData;
+		finishLoading();
 	}
 
 	/**
@@ -72,7 +176,55 @@ public class DatasetReader
 	 */
 	public Item getItem(Integer id)
 	{
-		return itemMap.get(id);
+		int index = itemDictionary.getIndex(id);
+		return (index >= 0) ? items[index] : null;
+	}
+
+	/**
+	 * Returns an item by dense index.
+	 * @return an Item object (or null if the item has no description)
+	 * @param the dense index of the Item object
+	 */
+	public Item getItemAt(final int index)
+	{
+		return items[index];
+	}
+
+	/**
+	 * Returns the dictionary of dense item indexes - every item described or rated has a dense index.
+	 * @return the item dictionary
+	 */
+	public IdDictionary getItemDictionary()
+	{
+		return itemDictionary;
+	}
+
+	/**
+	 * Returns the dictionary of dense user indexes.
+	 * @return the user dictionary
+	 */
+	public IdDictionary getUserDictionary()
+	{
+		return userDictionary;
+	}
+
+	/**
+	 * Returns the distinct genres of the items loaded - the genre at index i is represented 
+	 * by bit i of the item genre bitmasks (if there are no more than 64 genres).
+	 * @return a list containing the genres
+	 */
+	public List<String> getGenres()
+	{
+		return genres;
+	}
+
+	/**
+	 * Returns true if the item genre bitmasks represent the genres (i.e. there are no more than 64 genres).
+	 * @return true if the item genre bitmasks can be used
+	 */
+	public boolean hasGenreMasks()
+	{
+		return genres.size() <= Long.SIZE;
 	}
 
 	/**
@@ -84,6 +236,27 @@ public class DatasetReader
 		return userProfileMap;
 	}
 
+	/**
+	 * Returns a user profile.
+	 * @return the user profile (or null if the user has no ratings)
+	 * @param the numeric ID of the user
+	 */
+	public Profile getUserProfile(final Integer id)
+	{
+		int index = userDictionary.getIndex(id);
+		return (index >= 0) ? userProfiles[index] : null;
+	}
+
+	/**
+	 * Returns a user profile by dense index.
+	 * @return the user profile
+	 * @param the dense index of the user
+	 */
+	public Profile getUserProfileAt(final int index)
+	{
+		return userProfiles[index];
+	}
+
 	/**
 	 * Returns all the item profiles loaded.
 	 * @return a HashMap containing item profiles
@@ -93,6 +266,27 @@ public class DatasetReader
 		return itemProfileMap;
 	}
 
+	/**
+	 * Returns an item profile.
+	 * @return the item profile (or null if the item has no ratings)
+	 * @param the numeric ID of the item
+	 */
+	public Profile getItemProfile(final Integer id)
+	{
+		int index = itemDictionary.getIndex(id);
+		return (index >= 0) ? itemProfiles[index] : null;
+	}
+
+	/**
+	 * Returns an item profile by dense index.
+	 * @return the item profile (or null if the item has no ratings)
+	 * @param the dense index of the item
+	 */
+	public Profile getItemProfileAt(final int index)
+	{
+		return itemProfiles[index];
+	}
+
 	/**
 	 * Returns genome scores for all the items loaded.
 	 * @return a HashMap containing item profiles
@@ -102,6 +296,25 @@ public class DatasetReader
 		return itemGenomeScoresMap;
 	}
 
+	/**
+	 * Returns the genome scores of the items loaded as a dense matrix.
+	 * @return a GenomeMatrix containing the genome scores of each item with a score for every tag
+	 */
+	public GenomeMatrix getItemGenomeMatrix()
+	{
+		return itemGenomeMatrix;
+	}
+
+	/**
+	 * Sets the format in which the genome scores are stored in the genome matrix (FLOAT by default), 
+	 * rebuilding the matrix - see ScoreFormat for the error of each format.
+	 * @param format the format of the genome scores
+	 */
+	public void setGenomeScoreFormat(final ScoreFormat format)
+	{
+		itemGenomeMatrix = new GenomeMatrix(itemGenomeScoresMap, format);
+	}
+
 	/**
 	 * Returns the test data.
 	 * @return a HashMap containing the test data
@@ -111,6 +324,47 @@ public class DatasetReader
 		return testData;
 	}
 
+	/**
+	 * Adds a rating to the user and item profiles (e.g. a rating received after the dataset was loaded) -
+	 * a rating for an item the user has already rated replaces the existing rating.
+	 * @param userId the numeric ID of the user
+	 * @param itemId the numeric ID of the item
+	 * @param rating the rating
+	 * @return the rating replaced (or null if the user had not rated the item)
+	 */
+	public Double addRating(final Integer userId, final Integer itemId, final double rating)
+	{
+		Profile up = getUserProfile(userId);
+		if(up == null)
+		{
+			up = new Profile(userId);
+			userProfileMap.put(userId, up);
+			int index = userDictionary.add(userId);
+			if(index >= userProfiles.length)
+				userProfiles = Arrays.copyOf(userProfiles, Math.max(index + 1, userProfiles.length * 2));
+			userProfiles[index] = up;
+		}
+		Double previous = up.getValue(itemId);
+		up.addValue(itemId.intValue(), rating);
+
+		Profile ip = getItemProfile(itemId);
+		if(ip == null)
+		{
+			ip = new Profile(itemId);
+			itemProfileMap.put(itemId, ip);
+			int index = itemDictionary.add(itemId);
+			if(index >= itemProfiles.length)
+			{
+				itemProfiles = Arrays.copyOf(itemProfiles, Math.max(index + 1, itemProfiles.length * 2));
+				items = Arrays.copyOf(items, itemProfiles.length);
+			}
+			itemProfiles[index] = ip;
+		}
+		ip.addValue(userId.intValue(), rating);
+
+		return previous;
+	}
+
 	/**
 	 * Loads all user and item profiles.
 	 * @param the path of the file containing the training user-item ratings
@@ -122,38 +376,110 @@ public class DatasetReader
 
 		try
 		{
-			BufferedReader br = new BufferedReader(new FileReader(new File(filename)));
-			String line;
-			while ((line = br.readLine()) != null) 
+			readRatings(filename, 0, Long.MAX_VALUE, userProfileMap, itemProfileMap);
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * Reads the ratings in a chunk of a file into user and item profiles.
+	 * @param filename the path of the file containing the training user-item ratings
+	 * @param start the file position of the start of the chunk
+	 * @param end the file position of the end of the chunk
+	 * @param users the user profiles
+	 * @param items the item profiles
+	 */
+	private static void readRatings(final String filename, final long start, final long end, 
+			final Map<Integer,Profile> users, final Map<Integer,Profile> items) throws IOException
+	{
+		ByteLineReader br = new ByteLineReader(filename, ", \t\n\r\f", start, end);
+		Profile up = null; // ratings are usually grouped by user, so the last user profile is reused
+		while (br.nextLine()) 
+		{
+			if(br.getFieldCount() != 3)
 			{
-				StringTokenizer st = new StringTokenizer(line, ", \t\n\r\f");
-				if(st.countTokens() != 3)
+				System.out.println("Error reading from file \"" + filename + "\"");
+				System.exit(1);
+			}
+
+			int userId = br.getInt(0);
+			int itemId = br.getInt(1);
+			double rating = br.getDouble(2);
+
+			// add data to user profile map
+			if(up == null || up.getId() != userId)
+			{
+				up = users.get(userId);
+				if(up == null)
 				{
-					System.out.println("Error reading from file \"" + filename + "\"");
-					System.exit(1);
+					up = new Profile(userId);
+					users.put(userId, up);
 				}
+			}
+			up.addValue(itemId, rating);
 
-				Integer userId = Integer.valueOf(st.nextToken());
-				Integer itemId = Integer.valueOf(st.nextToken());
-				Double rating = Double.valueOf(st.nextToken());
+			// add data to item profile map
+			Profile ip = items.get(itemId);
+			if(ip == null)
+			{
+				ip = new Profile(itemId);
+				items.put(itemId, ip);
+			}
+			ip.addValue(userId, rating);
+		}
 
-				// add data to user profile map
-				Profile up = userProfileMap.containsKey(userId) ? userProfileMap.get(userId) : new Profile(userId);
-				up.addValue(itemId, rating);
-				userProfileMap.put(userId, up);
+		br.close();
+	}
 
-				// add data to item profile map
-				Profile ip = itemProfileMap.containsKey(itemId) ? itemProfileMap.get(itemId) : new Profile(itemId);
-				ip.addValue(userId, rating);
-				itemProfileMap.put(itemId, ip);
-			}
+	/**
+	 * Submits a task to read each chunk of the ratings file into partial user and item profiles.
+	 * @param executor the executor which runs the tasks
+	 * @param filename the path of the file containing the training user-item ratings
+	 * @param nchunks the maximum number of chunks
+	 * @return the partial user profiles (element 0) and item profiles (element 1) of each chunk, in file order
+	 */
+	private static List<Future<List<Map<Integer,Profile>>>> submitRatingChunks(final ExecutorService executor, final String filename, final int nchunks) throws IOException
+	{
+		List<Future<List<Map<Integer,Profile>>>> futures = new ArrayList<Future<List<Map<Integer,Profile>>>>();
 
-			br.close();
+		final long[] boundaries = ByteLineReader.getChunkBoundaries(filename, nchunks);
+		for(int i = 0; i + 1 < boundaries.length; i++)
+		{
+			final int chunk = i;
+			futures.add(executor.submit(new Callable<List<Map<Integer,Profile>>>() {
+				public List<Map<Integer,Profile>> call() throws IOException
+				{
+					Map<Integer,Profile> userProfiles = new HashMap<Integer,Profile>();
+					Map<Integer,Profile> itemProfiles = new HashMap<Integer,Profile>();
+					readRatings(filename, boundaries[chunk], boundaries[chunk + 1], userProfiles, itemProfiles);
+					return Arrays.asList(userProfiles, itemProfiles);
+				}
+			}));
 		}
-		catch(IOException e)
+
+		return futures;
+	}
+
+	/**
+	 * Merges partial profiles into a map of profiles - where an ID appears in both, the value in the 
+	 * partial profile is kept, as it was read later in the file.
+	 * @param profiles the profiles
+	 * @param partial the partial profiles
+	 */
+	private static void mergeProfiles(final Map<Integer,Profile> profiles, final Map<Integer,Profile> partial)
+	{
+		for(Profile pp: partial.values())
 		{
-			e.printStackTrace();
-			System.exit(0);
+			Profile p = profiles.get(pp.getId());
+			if(p == null)
+				profiles.put(pp.getId(), pp);
+			else
+				for(int i = 0; i < pp.getSize(); i++)
+					p.addValue(pp.getIdAt(i), pp.getValueAt(i));
 		}
 	}
 
@@ -163,28 +489,9 @@ public class DatasetReader
 	 */
 	private void loadTestData(final String filename) 
 	{
-		testData = new HashMap<UserItemPair,Double>();
-
 		try
 		{
-			BufferedReader br = new BufferedReader(new FileReader(new File(filename)));
-			String line;
-			while ((line = br.readLine()) != null) 
-			{
-				StringTokenizer st = new StringTokenizer(line, ", \t\n\r\f");
-				if(st.countTokens() != 2 && st.countTokens() != 3)
-				{
-					System.out.println("Error reading from file \"" + filename + "\"");
-					System.exit(1);
-				}
-
-				Integer userId = Integer.valueOf(st.nextToken());
-				Integer itemId = Integer.valueOf(st.nextToken());
-				Double rating = (st.countTokens() == 1) ? Double.valueOf(st.nextToken()) : null; // check to see if one more token (i.e. the rating) remains
-				testData.put(new UserItemPair(userId, itemId), rating);	// add data to user test data map
-			}
-
-			br.close();
+			testData = readTestData(filename);
 		}
 		catch(IOException e)
 		{
@@ -193,6 +500,34 @@ public class DatasetReader
 		}
 	}
 
+	/**
+	 * Reads all test data.
+	 * @param the path of the file containing the test user-item ratings
+	 * @return the test data
+	 */
+	private static Map<UserItemPair,Double> readTestData(final String filename) throws IOException
+	{
+		Map<UserItemPair,Double> testData = new HashMap<UserItemPair,Double>();
+
+		ByteLineReader br = new ByteLineReader(filename, ", \t\n\r\f");
+		while (br.nextLine()) 
+		{
+			if(br.getFieldCount() != 2 && br.getFieldCount() != 3)
+			{
+				System.out.println("Error reading from file \"" + filename + "\"");
+				System.exit(1);
+			}
+
+			int userId = br.getInt(0);
+			int itemId = br.getInt(1);
+			Double rating = (br.getFieldCount() == 3) ? Double.valueOf(br.getDouble(2)) : null; // check to see if one more field (i.e. the rating) remains
+			testData.put(new UserItemPair(userId, itemId), rating);	// add data to user test data map
+		}
+
+		br.close();
+		return testData;
+	}
+
 	/**
 	 * Used for dataset MovieLens 100K
 	 * @param filename
@@ -203,19 +538,17 @@ public class DatasetReader
 
 		try
 		{
-			BufferedReader br = new BufferedReader(new FileReader(new File(filename)));
-			String line;
-			while ((line = br.readLine()) != null) 
+			ByteLineReader br = new ByteLineReader(filename, "|");
+			while (br.nextLine()) 
 			{
-				StringTokenizer st = new StringTokenizer(line, "|");
-				if(st.countTokens() < 2)
+				if(br.getFieldCount() < 2)
 				{
 					System.out.println("Error reading from file \"" + filename + "\"");
 					System.exit(1);
 				}
 
-				Integer id = Integer.valueOf(st.nextToken());
-				String name = st.nextToken();
+				Integer id = br.getInt(0);
+				String name = br.getString(1);
 				Item item = new Item(id, name);
 				itemMap.put(id, item);
 			}
@@ -239,16 +572,21 @@ public class DatasetReader
 
 		try
 		{
-			BufferedReader br = new BufferedReader(new FileReader(new File(filename)));
-			String line;
-			while ((line = br.readLine()) != null) 
+			ByteLineReader br = new ByteLineReader(filename, ",");
+			while (br.nextLine()) 
 			{
-				int firstIndex = line.indexOf(",");
-				int lastIndex = line.lastIndexOf(",");
+				// the title may be quoted and contain commas, so it runs from the first to the last comma
+				int firstIndex = br.indexOf(',');
+				int lastIndex = br.lastIndexOf(',');
+				if(firstIndex < 0 || lastIndex == firstIndex)
+				{
+					System.out.println("Error reading from file \"" + filename + "\"");
+					System.exit(1);
+				}
 
-				Integer movieId = Integer.valueOf(line.substring(0, firstIndex));
-				String title = line.substring(firstIndex + 1, lastIndex);
-				String genreStr = line.substring(lastIndex + 1);
+				Integer movieId = br.getInt(0, firstIndex);
+				String title = br.getString(firstIndex + 1, lastIndex);
+				String genreStr = br.getString(lastIndex + 1, br.getLineLength());
 
 				// read genres
 				Set<String> genres = new HashSet<String>();
@@ -287,34 +625,167 @@ public class DatasetReader
 
 		try
 		{
-			BufferedReader br = new BufferedReader(new FileReader(new File(filename)));
-			String line;
-			br.readLine(); // read header line
-			while ((line = br.readLine()) != null) 
+			readGenomeScores(filename, 0, Long.MAX_VALUE, itemGenomeScoresMap);
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * Reads the genome scores in a chunk of a file into item profiles - the header line is skipped if the chunk starts the file.
+	 * @param filename the path of the file containing item genome scores
+	 * @param start the file position of the start of the chunk
+	 * @param end the file position of the end of the chunk
+	 * @param scores the item genome score profiles
+	 */
+	private static void readGenomeScores(final String filename, final long start, final long end, final Map<Integer,Profile> scores) throws IOException
+	{
+		ByteLineReader br = new ByteLineReader(filename, ",", start, end);
+		if(start == 0)
+			br.nextLine(); // read header line
+		Profile p = null; // scores are grouped by movie, so the last profile is reused
+		while (br.nextLine()) 
+		{
+			if(br.getFieldCount() != 3)
 			{
-				StringTokenizer st = new StringTokenizer(line, ",");
-				int ntokens = st.countTokens();
-				if(ntokens != 3)
+				System.out.println("Error reading from file \"" + filename + "\"");
+				System.exit(1);
+			}
+
+			int movieId = br.getInt(0);
+			int tagId = br.getInt(1);
+			double relevance = br.getDouble(2);
+
+			if(p == null || p.getId() != movieId)
+			{
+				p = scores.get(movieId);
+				if(p == null)
 				{
-					System.out.println("Error reading from file \"" + filename + "\"");
-					System.exit(1);
+					p = new Profile(movieId);
+					scores.put(movieId, p);
 				}
+			}
+			p.addValue(tagId, relevance);
+		}
 
-				Integer movieId = Integer.valueOf(st.nextToken());
-				Integer tagId = Integer.valueOf(st.nextToken());
-				Double relevance = Double.valueOf(st.nextToken());
+		br.close();
+	}
 
-				Profile p = (itemGenomeScoresMap.containsKey(movieId) ? itemGenomeScoresMap.get(movieId) : new Profile(movieId));
-				p.addValue(tagId, relevance);
-				itemGenomeScoresMap.put(movieId, p);
-			}
+	/**
+	 * Submits a task to read each chunk of the genome scores file into partial item profiles.
+	 * @param executor the executor which runs the tasks
+	 * @param filename the path of the file containing item genome scores
+	 * @param nchunks the maximum number of chunks
+	 * @return the partial item genome score profiles of each chunk, in file order
+	 */
+	private static List<Future<Map<Integer,Profile>>> submitGenomeScoreChunks(final ExecutorService executor, final String filename, final int nchunks) throws IOException
+	{
+		List<Future<Map<Integer,Profile>>> futures = new ArrayList<Future<Map<Integer,Profile>>>();
 
-			br.close();
+		final long[] boundaries = ByteLineReader.getChunkBoundaries(filename, nchunks);
+		for(int i = 0; i + 1 < boundaries.length; i++)
+		{
+			final int chunk = i;
+			futures.add(executor.submit(new Callable<Map<Integer,Profile>>() {
+				public Map<Integer,Profile> call() throws IOException
+				{
+					Map<Integer,Profile> partial = new HashMap<Integer,Profile>();
+					readGenomeScores(filename, boundaries[chunk], boundaries[chunk + 1], partial);
+					return partial;
+				}
+			}));
 		}
-		catch(IOException e)
+
+		return futures;
+	}
+
+	/**
+	 * Prepares the profiles for use once all data has been loaded.
+	 */
+	private void finishLoading()
+	{
+		compactProfiles(userProfileMap);
+		compactProfiles(itemProfileMap);
+		compactProfiles(itemGenomeScoresMap);
+		itemGenomeMatrix = new GenomeMatrix(itemGenomeScoresMap);
+		assignGenreMasks();
+		assignDenseIndexes();
+
+		// precompute the item statistics used by the similarity metrics and the evaluator
+		for(Profile ip: itemProfileMap.values())
+			ip.getStatistics();
+	}
+
+	/**
+	 * Assigns a dense index to each user and each item (described or rated), in ascending order of ID,
+	 * and stores the profiles and items by dense index.
+	 */
+	private void assignDenseIndexes()
+	{
+		userDictionary = new IdDictionary(userProfileMap.keySet());
+		userProfiles = new Profile[userDictionary.getSize()];
+		for(int u = 0; u < userProfiles.length; u++)
+			userProfiles[u] = userProfileMap.get(userDictionary.getId(u));
+
+		Set<Integer> itemIds = new HashSet<Integer>(itemMap.keySet());
+		itemIds.addAll(itemProfileMap.keySet());
+		itemDictionary = new IdDictionary(itemIds);
+		itemProfiles = new Profile[itemDictionary.getSize()];
+		items = new Item[itemDictionary.getSize()];
+		for(int i = 0; i < items.length; i++)
 		{
-			e.printStackTrace();
-			System.exit(0);
+			itemProfiles[i] = itemProfileMap.get(itemDictionary.getId(i));
+			items[i] = itemMap.get(itemDictionary.getId(i));
 		}
 	}
+
+	/**
+	 * Interns the genres of the items loaded, assigning a bit to each genre in ascending order of 
+	 * item ID and then genre name, and sets the genre bitmask of each item.
+	 */
+	private void assignGenreMasks()
+	{
+		List<Integer> itemIds = new ArrayList<Integer>(itemMap.keySet());
+		Collections.sort(itemIds);
+
+		List<String> genreList = new ArrayList<String>();
+		Map<String,Integer> genreIndex = new HashMap<String,Integer>();
+		for(Integer id: itemIds)
+		{
+			List<String> itemGenres = new ArrayList<String>(itemMap.get(id).getGenres());
+			Collections.sort(itemGenres);
+			for(String genre: itemGenres)
+				if(!genreIndex.containsKey(genre))
+				{
+					genreIndex.put(genre, genreList.size());
+					genreList.add(genre);
+				}
+		}
+		genres = Collections.unmodifiableList(genreList);
+
+		for(Item item: itemMap.values())
+		{
+			long mask = 0;
+			for(String genre: item.getGenres())
+			{
+				int bit = genreIndex.get(genre);
+				if(bit < Long.SIZE)
+					mask |= 1L << bit;
+			}
+			item.setGenreMask(mask);
+		}
+	}
+
+	/**
+	 * Sorts and trims all profiles once they have been loaded.
+	 * @param profiles - a map of profiles
+	 */
+	private void compactProfiles(final Map<Integer,Profile> profiles)
+	{
+		for(Profile p: profiles.values())
+			p.compact();
+	}
 }
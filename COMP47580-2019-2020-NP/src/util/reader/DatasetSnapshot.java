@@ -0,0 +1,391 @@
+/**
+ * DatasetSnapshot converts a loaded dataset into a compact binary snapshot, and loads a DatasetReader
+ * from a snapshot by memory-mapping the file, so that the text files do not need to be parsed again.
+ *
+ * The snapshot is stored in little-endian byte order as follows:
+ * - header: magic number, format version
+ * - genres: the number of distinct genres followed by each genre name
+ * - items: the number of items followed by, for each item, its id, name, genome flag and genre indexes
+ * - user profiles: the training ratings by user
+ * - item profiles: the training ratings by item
+ * - test data: the number of test pairs followed by three columns (user ids, item ids, ratings - NaN if absent)
+ * - genome scores: the genome scores by item
+ *
+ * Each set of profiles is stored in compressed sparse row form: the number of profiles, the profile ids in
+ * ascending order, the offset of each profile in the columns which follow (and the total number of values),
+ * and two columns (the ids and values of each profile in turn, in ascending order of id). So each profile
+ * is loaded from a contiguous range of the columns into arrays of its final size. The user and item profiles
+ * are the compressed sparse row and column forms of the ratings matrix.
+ *
+ * Strings are stored as an int length followed by UTF-8 bytes.
+ */
+
+package util.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import profile.Profile;
+import util.Item;
+import util.UserItemPair;
+
+public class DatasetSnapshot
+{
+	private static final int MAGIC = 0x5344504e; // "NPDS"
+	private static final int VERSION = 2; // the snapshot format version
+
+	/**
+	 * converts a dataset to a binary snapshot
+	 * @param args - the item file, genome scores file, train file, test file and snapshot file
+	 * (omit the genome scores file for the MovieLens 100K dataset)
+	 */
+	public static void main(String[] args)
+	{
+		if(args.length != 4 && args.length != 5)
+		{
+			System.out.println("Usage: DatasetSnapshot itemFile [itemGenomeScoresFile] trainFile testFile snapshotFile");
+			System.exit(1);
+		}
+
+		long start = System.currentTimeMillis();
+		DatasetReader reader = (args.length == 5) ?
+				new DatasetReader(args[0], args[1], args[2], args[3]) :
+				new DatasetReader(args[0], args[1], args[2]);
+		long loaded = System.currentTimeMillis();
+		write(reader, args[args.length - 1]);
+		long written = System.currentTimeMillis();
+
+		System.out.println("Parsed text files in " + (loaded - start) + " ms, wrote snapshot in " + (written - loaded) + " ms");
+	}
+
+	/**
+	 * writes a dataset to a binary snapshot
+	 * @param reader - dataset reader
+	 * @param filename - the path of the snapshot file
+	 */
+	public static void write(final DatasetReader reader, final String filename)
+	{
+		try
+		{
+			RandomAccessFile file = new RandomAccessFile(new File(filename), "rw");
+			file.setLength(0);
+			Output out = new Output(file.getChannel());
+
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+
+			// genres
+			Map<Integer,Item> items = reader.getItems();
+			int[] itemIds = sortedIds(items.keySet());
+			List<String> genres = new ArrayList<String>();
+			Map<String,Integer> genreIndex = new HashMap<String,Integer>();
+			for(int id: itemIds)
+				for(String genre: items.get(id).getGenres())
+					if(!genreIndex.containsKey(genre))
+					{
+						genreIndex.put(genre, genres.size());
+						genres.add(genre);
+					}
+			out.putInt(genres.size());
+			for(String genre: genres)
+				out.putString(genre);
+
+			// items
+			out.putInt(itemIds.length);
+			for(int id: itemIds)
+			{
+				Item item = items.get(id);
+				out.putInt(id);
+				out.putString(item.getName());
+				out.putByte((byte)(item.getGenomeScores() != null ? 1 : 0));
+				out.putInt(item.getGenres().size());
+				for(String genre: item.getGenres())
+					out.putInt(genreIndex.get(genre));
+			}
+
+			// training ratings - by user and by item
+			writeProfiles(out, reader.getUserProfiles());
+			writeProfiles(out, reader.getItemProfiles());
+
+			// test data
+			List<Map.Entry<UserItemPair,Double>> test = new ArrayList<Map.Entry<UserItemPair,Double>>(reader.getTestData().entrySet());
+			out.putInt(test.size());
+			for(Map.Entry<UserItemPair,Double> entry: test)
+				out.putInt(entry.getKey().getUserId());
+			for(Map.Entry<UserItemPair,Double> entry: test)
+				out.putInt(entry.getKey().getItemId());
+			for(Map.Entry<UserItemPair,Double> entry: test)
+				out.putDouble(entry.getValue() != null ? entry.getValue() : Double.NaN);
+
+			// genome scores
+			writeProfiles(out, reader.getItemGenomeScores());
+
+			out.flush();
+			file.close();
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * loads a dataset from a binary snapshot - the file is memory-mapped and the
+	 * user, item and genome score profiles are built directly from its columns
+	 * @param filename - the path of the snapshot file
+	 * @returns a DatasetReader containing the dataset
+	 */
+	public static DatasetReader load(final String filename)
+	{
+		try
+		{
+			RandomAccessFile file = new RandomAccessFile(new File(filename), "r");
+			FileChannel channel = file.getChannel();
+
+			// the header, genres and items are read from a single mapping
+			ByteBuffer buf = map(channel, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+			if(buf.remaining() < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION)
+			{
+				System.out.println("Error reading from file \"" + filename + "\"");
+				System.exit(1);
+			}
+
+			String[] genres = new String[buf.getInt()];
+			for(int i = 0; i < genres.length; i++)
+				genres[i] = getString(buf);
+
+			Map<Integer,Item> itemMap = new HashMap<Integer,Item>();
+			int[] itemIds = new int[buf.getInt()];
+			boolean[] hasGenome = new boolean[itemIds.length];
+			String[] names = new String[itemIds.length];
+			List<Set<String>> itemGenres = new ArrayList<Set<String>>();
+			for(int i = 0; i < itemIds.length; i++)
+			{
+				itemIds[i] = buf.getInt();
+				names[i] = getString(buf);
+				hasGenome[i] = buf.get() != 0;
+				Set<String> set = new HashSet<String>();
+				int ngenres = buf.getInt();
+				for(int j = 0; j < ngenres; j++)
+					set.add(genres[buf.getInt()]);
+				itemGenres.add(set);
+			}
+			long position = buf.position();
+
+			// training ratings - by user and by item
+			Map<Integer,Profile> userProfileMap = new HashMap<Integer,Profile>();
+			Map<Integer,Profile> itemProfileMap = new HashMap<Integer,Profile>();
+			position = readProfiles(channel, position, userProfileMap);
+			position = readProfiles(channel, position, itemProfileMap);
+
+			// test data
+			Map<UserItemPair,Double> testData = new HashMap<UserItemPair,Double>();
+			int ntest = map(channel, position, 4).getInt();
+			position += 4;
+			IntBuffer testUsers = map(channel, position, 4L * ntest).asIntBuffer();
+			position += 4L * ntest;
+			IntBuffer testItems = map(channel, position, 4L * ntest).asIntBuffer();
+			position += 4L * ntest;
+			DoubleBuffer testRatings = map(channel, position, 8L * ntest).asDoubleBuffer();
+			position += 8L * ntest;
+			for(int i = 0; i < ntest; i++)
+			{
+				double rating = testRatings.get(i);
+				testData.put(new UserItemPair(testUsers.get(i), testItems.get(i)), Double.isNaN(rating) ? null : Double.valueOf(rating));
+			}
+
+			// genome scores
+			Map<Integer,Profile> itemGenomeScoresMap = new HashMap<Integer,Profile>();
+			readProfiles(channel, position, itemGenomeScoresMap);
+
+			// items
+			for(int i = 0; i < itemIds.length; i++)
+			{
+				Profile genome = null;
+				if(hasGenome[i])
+					genome = itemGenomeScoresMap.containsKey(itemIds[i]) ? itemGenomeScoresMap.get(itemIds[i]) : new Profile(itemIds[i]);
+				itemMap.put(itemIds[i], new Item(itemIds[i], names[i], itemGenres.get(i), genome));
+			}
+
+			file.close();
+
+			return new DatasetReader(itemMap, itemGenomeScoresMap, userProfileMap, itemProfileMap, testData);
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			System.exit(0);
+			return null;
+		}
+	}
+
+	/**
+	 * writes a set of profiles in compressed sparse row form
+	 * @param out - the output
+	 * @param profiles - the profiles
+	 */
+	private static void writeProfiles(final Output out, final Map<Integer,Profile> profiles) throws IOException
+	{
+		int[] ids = sortedIds(profiles.keySet());
+		out.putInt(ids.length);
+		for(int id: ids)
+			out.putInt(id);
+
+		int offset = 0;
+		for(int id: ids)
+		{
+			out.putInt(offset);
+			offset += profiles.get(id).getSize();
+		}
+		out.putInt(offset);
+
+		for(int id: ids)
+		{
+			Profile p = profiles.get(id);
+			for(int i = 0; i < p.getSize(); i++)
+				out.putInt(p.getIdAt(i));
+		}
+		for(int id: ids)
+		{
+			Profile p = profiles.get(id);
+			for(int i = 0; i < p.getSize(); i++)
+				out.putDouble(p.getValueAt(i));
+		}
+	}
+
+	/**
+	 * reads a set of profiles stored in compressed sparse row form - each profile is built from its range
+	 * of the columns, in ascending order of id, into arrays of its final size
+	 * @param channel - the file channel
+	 * @param position - the position of the profiles in the file
+	 * @param profiles - the map to which the profiles are added
+	 * @returns the position following the profiles
+	 */
+	private static long readProfiles(final FileChannel channel, long position, final Map<Integer,Profile> profiles) throws IOException
+	{
+		int nprofiles = map(channel, position, 4).getInt();
+		position += 4;
+		IntBuffer profileIds = map(channel, position, 4L * nprofiles).asIntBuffer();
+		position += 4L * nprofiles;
+		IntBuffer offsets = map(channel, position, 4L * (nprofiles + 1)).asIntBuffer();
+		position += 4L * (nprofiles + 1);
+		int nvalues = offsets.get(nprofiles);
+		IntBuffer ids = map(channel, position, 4L * nvalues).asIntBuffer();
+		position += 4L * nvalues;
+		DoubleBuffer values = map(channel, position, 8L * nvalues).asDoubleBuffer();
+		position += 8L * nvalues;
+
+		for(int p = 0; p < nprofiles; p++)
+		{
+			int start = offsets.get(p), end = offsets.get(p + 1);
+			Profile profile = new Profile(profileIds.get(p), end - start);
+			for(int i = start; i < end; i++)
+				profile.addValue(ids.get(i), values.get(i));
+			profiles.put(profileIds.get(p), profile);
+		}
+		return position;
+	}
+
+	/**
+	 * @returns a read-only little-endian mapping of part of a file
+	 */
+	private static ByteBuffer map(final FileChannel channel, final long position, final long size) throws IOException
+	{
+		MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		return buf.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * @returns a string read from a buffer
+	 */
+	private static String getString(final ByteBuffer buf)
+	{
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @returns the IDs in ascending order
+	 */
+	private static int[] sortedIds(final Set<Integer> ids)
+	{
+		int[] sorted = new int[ids.size()];
+		int i = 0;
+		for(Integer id: ids)
+			sorted[i++] = id;
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * A buffered little-endian writer to a file channel
+	 */
+	private static class Output
+	{
+		private FileChannel channel; // the file channel
+		private ByteBuffer buf; // the write buffer
+
+		Output(final FileChannel channel)
+		{
+			this.channel = channel;
+			this.buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		void putByte(final byte value) throws IOException
+		{
+			ensure(1);
+			buf.put(value);
+		}
+
+		void putInt(final int value) throws IOException
+		{
+			ensure(4);
+			buf.putInt(value);
+		}
+
+		void putDouble(final double value) throws IOException
+		{
+			ensure(8);
+			buf.putDouble(value);
+		}
+
+		void putString(final String value) throws IOException
+		{
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+			for(byte b: bytes)
+				putByte(b);
+		}
+
+		void flush() throws IOException
+		{
+			buf.flip();
+			while(buf.hasRemaining())
+				channel.write(buf);
+			buf.clear();
+		}
+
+		private void ensure(final int n) throws IOException
+		{
+			if(buf.remaining() < n)
+				flush();
+		}
+	}
+}